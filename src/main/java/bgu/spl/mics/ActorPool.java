@@ -0,0 +1,117 @@
+package bgu.spl.mics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs micro-services as actors on a shared work-stealing pool, instead of one
+ * thread per micro-service.
+ * <p>
+ * An actor is scheduled on the pool only while its mailbox has messages, and at
+ * most one task per actor is scheduled at any time, so the callbacks of one
+ * micro-service never run concurrently and observe each other's effects just as in
+ * {@link MicroService#run()}. The number of threads is fixed by the parallelism of
+ * the pool, however many micro-services are started.
+ * <p>
+ * Callbacks should not block: a blocked callback holds one of the pool's threads.
+ */
+public final class ActorPool {
+
+    // The most messages one actor handles before letting other actors run
+    private static final int MAX_BATCH = 64;
+
+    private final ForkJoinPool pool;
+    private final List<CountDownLatch> finished = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param parallelism The number of threads of the pool.
+     */
+    public ActorPool(int parallelism) {
+        // async mode: actors are independent tasks, so schedule them FIFO
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Registers the micro-service and runs its {@link MicroService#initialize()} on the
+     * pool; from then on it handles its messages whenever it has any, until it terminates.
+     *
+     * @param m The micro-service to start, which must not be run in any other way.
+     */
+    public void start(MicroService m) {
+        Actor actor = new Actor(m);
+        finished.add(actor.done);
+        pool.execute(actor);
+    }
+
+    /**
+     * Waits until every started micro-service has terminated, then shuts the pool down.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (CountDownLatch done : finished) {
+            done.await();
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * @return The number of threads the pool has started so far.
+     */
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+
+    private final class Actor implements Runnable {
+        private final MicroService service;
+        private final MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        private final AtomicBoolean scheduled = new AtomicBoolean(true); // the first run initializes
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Mailbox mailbox;
+
+        private Actor(MicroService service) {
+            this.service = service;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (mailbox == null) {
+                    service.setUp();
+                    mailbox = messageBus.getMailbox(service);
+                    mailbox.setListener(this::schedule);
+                } else {
+                    Message message;
+                    for (int i = 0; i < MAX_BATCH && !service.isterminated() && (message = mailbox.poll()) != null; i++) {
+                        service.handle(message);
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.error("{} failed", service.getName(), e);
+                service.terminate();
+            }
+            if (service.isterminated()) {
+                // stays marked as scheduled, so it never runs again
+                Log.info("{} finis loop run", service.getName());
+                if (mailbox != null) {
+                    mailbox.setListener(null);
+                }
+                messageBus.unregister(service);
+                done.countDown();
+                return;
+            }
+            scheduled.set(false);
+            // a message that arrived while this run was going on found the actor still scheduled
+            if (mailbox.size() > 0) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package bgu.spl.mics;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Mailbox} backed by an {@link ArrayDeque} under a single lock.
+ * Used for the overflow policies that make senders remove queued messages,
+ * which the single-consumer {@link MpscMailbox} cannot allow.
+ * <p>
+ * A consumer waiting on the empty queue is woken by a signal, not by a queued
+ * token, so the size and the capacity only ever count real messages.
+ */
+final class BlockingMailbox extends Mailbox {
+
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Class<? extends Message> coalescedType;
+    private volatile int size; // written under the lock, read without it
+
+    BlockingMailbox(int capacity, OverflowPolicy policy, Class<? extends Message> coalescedType) {
+        super(capacity, policy);
+        this.coalescedType = coalescedType;
+    }
+
+    @Override
+    void enqueue(Message message) throws InterruptedException {
+        Message dropped = null;
+        boolean added = true;
+        long blockedSince = 0;
+        lock.lockInterruptibly();
+        try {
+            if (queue.size() == getCapacity()) {
+                switch (getPolicy()) {
+                    case DROP_NEWEST:
+                        dropped = message;
+                        added = false;
+                        break;
+                    case DROP_OLDEST:
+                        dropped = queue.poll();
+                        break;
+                    case COALESCE:
+                        if (coalescedType != null && coalescedType.isInstance(message)) {
+                            dropped = removeOldestCoalesced();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                if (added && dropped == null) {
+                    blockedSince = System.nanoTime();
+                    try {
+                        while (queue.size() == getCapacity()) {
+                            notFull.await();
+                        }
+                    } finally {
+                        recordBlocked(System.nanoTime() - blockedSince);
+                    }
+                }
+            }
+            if (added) {
+                queue.add(message);
+                size = queue.size();
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (dropped != null) {
+            recordDrop(dropped);
+        }
+        if (added) {
+            signal();
+        }
+    }
+
+    @Override
+    Message takeData() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (hasControlMessages()) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    Message pollData() {
+        if (size == 0) {
+            return null;
+        }
+        lock.lock();
+        try {
+            return queue.isEmpty() ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    int dataSize() {
+        return size;
+    }
+
+    @Override
+    void wakeConsumer() {
+        // the control message is already in its lane, so a consumer that checks it under the lock sees it
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Message removeFirst() {
+        taking(queue.peek());
+        Message message = queue.poll();
+        size = queue.size();
+        notFull.signal();
+        return message;
+    }
+
+    @Override
+    Envelope<?> findQueued(Event<?> event) {
+        lock.lock();
+        try {
+            for (Message message : queue) {
+                if (message instanceof Envelope && ((Envelope<?>) message).getEvent() == event) {
+                    return (Envelope<?>) message;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes the oldest queued message of the coalesced type, or returns null if there is none. */
+    private Message removeOldestCoalesced() {
+        Iterator<Message> it = queue.iterator();
+        while (it.hasNext()) {
+            Message queued = it.next();
+            if (coalescedType.isInstance(queued)) {
+                it.remove();
+                size = queue.size();
+                return queued;
+            }
+        }
+        return null;
+    }
+}
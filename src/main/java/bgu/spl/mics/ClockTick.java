@@ -0,0 +1,13 @@
+package bgu.spl.mics;
+
+/**
+ * A {@link Broadcast} that advances the simulation clock. Sending one releases the
+ * events held by {@link MessageBus#sendEventAt} that are due by its time.
+ */
+public interface ClockTick extends Broadcast {
+
+    /**
+     * @return The tick this broadcast announces.
+     */
+    int getTime();
+}
@@ -0,0 +1,23 @@
+package bgu.spl.mics;
+
+/**
+ * Carries the result of a resolved {@link Future} into the mailbox of the
+ * micro-service that registered a callback for it with
+ * {@link MicroService#onComplete(Future, Callback)}.
+ *
+ * @param <T> The type of the result.
+ */
+final class Completion<T> implements Message {
+
+    private final Callback<T> callback;
+    private final T result;
+
+    Completion(Callback<T> callback, T result) {
+        this.callback = callback;
+        this.result = result;
+    }
+
+    void run() {
+        callback.call(result);
+    }
+}
@@ -0,0 +1,10 @@
+package bgu.spl.mics;
+
+/**
+ * A "Marker" interface for messages that control the life cycle of micro-services,
+ * such as a crash report. A control message skips every message already queued in
+ * the receiving {@link Mailbox} and is handled next.
+ */
+public interface ControlMessage extends Message {
+
+}
@@ -0,0 +1,71 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Carries an {@link Event} through a mailbox together with the {@link Future}
+ * returned to its sender, so completing the event resolves the future directly.
+ * An event sent in a batch carries its slot in the batch's {@link FutureGroup} instead.
+ * Whoever completes the event first claims the envelope, so it is resolved once.
+ *
+ * @param <T> The type of the result expected by the event.
+ */
+final class Envelope<T> implements Message {
+
+    private final Event<T> event;
+    private final Future<T> future;
+    private final FutureGroup<T> group;
+    private final int index;
+    private volatile int claimed; // 1 once completed
+
+    private static final AtomicIntegerFieldUpdater<Envelope> CLAIMED =
+            AtomicIntegerFieldUpdater.newUpdater(Envelope.class, "claimed");
+
+    Envelope(Event<T> event) {
+        this.event = event;
+        this.future = new Future<>();
+        this.group = null;
+        this.index = -1;
+    }
+
+    Envelope(Event<T> event, FutureGroup<T> group, int index) {
+        this.event = event;
+        this.future = null;
+        this.group = group;
+        this.index = index;
+    }
+
+    Event<T> getEvent() {
+        return event;
+    }
+
+    /** @return The future of the event, or null if it was sent in a batch. */
+    Future<T> getFuture() {
+        return future;
+    }
+
+    FutureGroup<T> getGroup() {
+        return group;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    /** @return true for the single caller that completes the event. */
+    boolean claim() {
+        return claimed == 0 && CLAIMED.compareAndSet(this, 0, 1);
+    }
+
+    boolean isClaimed() {
+        return claimed != 0;
+    }
+
+    void resolve(T result) {
+        if (group != null) {
+            group.resolve(index, result);
+        } else {
+            future.resolve(result);
+        }
+    }
+}
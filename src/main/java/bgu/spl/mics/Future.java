@@ -1,84 +1,263 @@
 package bgu.spl.mics;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 /**
  * A Future object represents a promised result - an object that will
  * eventually be resolved to hold a result of some operation. The class allows
  * Retrieving the result once it is available.
- * 
+ * <p>
+ * The future takes no lock: resolving it is a single compare-and-set, and waiting
+ * threads and completion callbacks are kept in a lock-free stack that the resolving
+ * thread empties. A thread blocked in {@link #get()} parks, so a virtual thread
+ * releases its carrier thread instead of pinning it.
+ * <p>
+ * Callbacks registered with {@link #onComplete(Consumer)} run on the thread that
+ * resolves the future, or on the registering thread if it is already resolved.
+ * {@link MicroService#onComplete(Future, Callback)} runs them in a micro-service's
+ * own event loop instead.
+ *
  * Only private methods may be added to this class.
  * No public constructor is allowed except for the empty constructor.
  */
 
 public class Future<T> {
-   private volatile T result = null;
-   private volatile boolean isResolved = false;
-   private final Object lock = new Object();
+   @SuppressWarnings("rawtypes")
+   private static final AtomicReferenceFieldUpdater<Future, Object> OUTCOME =
+         AtomicReferenceFieldUpdater.newUpdater(Future.class, Object.class, "outcome");
+   @SuppressWarnings("rawtypes")
+   private static final AtomicReferenceFieldUpdater<Future, Node> WAITERS =
+         AtomicReferenceFieldUpdater.newUpdater(Future.class, Node.class, "waiters");
+
+   private static final Object NULL_RESULT = new Object(); // the outcome of resolve(null)
+   private static final Node RESOLVED = new Node(null, null); // the waiters once resolved
+
+   private volatile Object outcome = null; // null while unresolved
+   private volatile Node waiters = null;
+
+   // A parked thread or a callback waiting for the result
+   private static final class Node {
+      volatile Thread thread;
+      final Consumer<Object> callback;
+      volatile Node next;
+
+      Node(Thread thread, Consumer<Object> callback) {
+         this.thread = thread;
+         this.callback = callback;
+      }
+   }
 
    public Future() {
-   this.result = null;  
-   this.isResolved = false;  
-}
+   }
 
+   /**
+    * Retrieves the result, waiting for it if the future is not resolved yet.
+    * An interrupt does not end the wait; the interrupt status is kept for the caller.
+    */
    public T get() {
-      if (result == null) { 
-         synchronized (lock) {
-            while (!isDone()) {  
-               try {
-                  lock.wait();
-               } catch (InterruptedException e) {
-                  Thread.currentThread().interrupt(); // Handle interruption.
-               }
-            }
-            return result; 
-         }
+      if (outcome == null) {
+         await(false, 0L);
       }
-      return result;
+      return result();
    }
 
+   /**
+    * Resolves the future, wakes the waiting threads and runs the callbacks.
+    * Only the first call has an effect.
+    */
     public void resolve(T result) {
-      if (this.result == null){
-         synchronized (lock) {
-            if (!isDone()) {  
-               this.result = result;
-               isResolved = true;
-               lock.notifyAll(); 
-            }
-        }
+      if (!OUTCOME.compareAndSet(this, null, result == null ? NULL_RESULT : result)) {
+         return;
+      }
+      Node head = WAITERS.getAndSet(this, RESOLVED);
+      if (head == null) {
+         return;
+      }
+      List<Node> nodes = new ArrayList<>();
+      for (Node node = head; node != null; node = node.next) {
+         nodes.add(node);
+      }
+      for (int i = nodes.size() - 1; i >= 0; i--) { // the stack is newest first
+         fire(nodes.get(i), result);
       }
     }
- 
+
 
    public boolean isDone() {
-      synchronized (lock) {
-         return isResolved;
-      }
+      return outcome != null;
    }
 
+   /**
+    * Retrieves the result, waiting at most the given time for it.
+    * The deadline is measured with {@link System#nanoTime()}, so changes of the
+    * wall clock do not affect it.
+    *
+    * @return The result, or null if the future was not resolved in time.
+    */
    public T get(long timeout, TimeUnit unit) {
-      if (result == null){
-         synchronized (lock) {
-            if (result == null){
-               long millisTimeout = unit.toMillis(timeout);
-               long startTime = System.currentTimeMillis();
-               while (!isDone()) {
-                  long elapsedTime = System.currentTimeMillis() - startTime;
-                  long remainingTime = millisTimeout - elapsedTime;
-                  if (remainingTime <= 0L) {
-                     return null;
-                  }
-   
-                  try {
-                     lock.wait(remainingTime);
-                  } catch (InterruptedException e) {
-                     Thread.currentThread().interrupt();
-                  }
+      if (outcome == null && !await(true, System.nanoTime() + unit.toNanos(timeout))) {
+         return null;
+      }
+      return result();
+   }
+
+   /**
+    * Runs {@code callback} with the result once the future is resolved: on the
+    * resolving thread, or right away on this thread if it is resolved already.
+    * Callbacks run in the order they were registered.
+    *
+    * @param callback The callback, which should not block.
+    */
+   @SuppressWarnings("unchecked")
+   public void onComplete(Consumer<? super T> callback) {
+      Objects.requireNonNull(callback);
+      Node node = new Node(null, (Consumer<Object>) callback);
+      if (!push(node)) {
+         callback.accept(result());
+      }
+   }
+
+   /**
+    * Returns a future resolved with the results of all {@code futures}, in their
+    * order, once every one of them is resolved.
+    *
+    * @param futures The futures to wait for; none of them may be null.
+    */
+   public static <T> Future<List<T>> allOf(List<? extends Future<? extends T>> futures) {
+      Future<List<T>> all = new Future<>();
+      int count = futures.size();
+      if (count == 0) {
+         all.resolve(Collections.emptyList());
+         return all;
+      }
+      AtomicReferenceArray<T> results = new AtomicReferenceArray<>(count);
+      AtomicInteger remaining = new AtomicInteger(count);
+      for (int i = 0; i < count; i++) {
+         int index = i;
+         Objects.requireNonNull(futures.get(i), "future " + i).onComplete(result -> {
+            results.set(index, result);
+            if (remaining.decrementAndGet() == 0) {
+               List<T> list = new ArrayList<>(count);
+               for (int j = 0; j < count; j++) {
+                  list.add(results.get(j));
+               }
+               all.resolve(list);
+            }
+         });
+      }
+      return all;
+   }
+
+   /**
+    * Returns a future resolved with the result of whichever of {@code futures} is
+    * resolved first. It is never resolved if {@code futures} is empty.
+    *
+    * @param futures The futures to wait for; none of them may be null.
+    */
+   public static <T> Future<T> anyOf(List<? extends Future<? extends T>> futures) {
+      Future<T> any = new Future<>();
+      for (int i = 0; i < futures.size() && !any.isDone(); i++) {
+         Objects.requireNonNull(futures.get(i), "future " + i).onComplete(any::resolve);
+      }
+      return any;
+   }
+
+   @SuppressWarnings("unchecked")
+   private T result() {
+      Object current = outcome;
+      return current == NULL_RESULT ? null : (T) current;
+   }
+
+   // Pushes a waiter, unless the future is already resolved
+   private boolean push(Node node) {
+      while (true) {
+         Node head = waiters;
+         if (head == RESOLVED) {
+            return false;
+         }
+         node.next = head;
+         if (WAITERS.compareAndSet(this, head, node)) {
+            return true;
+         }
+      }
+   }
+
+   private void fire(Node node, T result) {
+      if (node.callback != null) {
+         try {
+            node.callback.accept(result);
+         } catch (RuntimeException e) {
+            Log.error("A completion callback failed", e); // one failing callback must not keep the others from running
+         }
+         return;
+      }
+      Thread thread = node.thread;
+      if (thread != null) {
+         node.thread = null;
+         LockSupport.unpark(thread);
+      }
+   }
+
+   // Parks until resolved or, if timed, until the deadline; returns whether resolved
+   private boolean await(boolean timed, long deadline) {
+      Node node = new Node(Thread.currentThread(), null);
+      if (!push(node)) {
+         return true;
+      }
+      boolean interrupted = false;
+      try {
+         while (outcome == null) {
+            if (timed) {
+               long remainingNanos = deadline - System.nanoTime();
+               if (remainingNanos <= 0L) {
+                  removeWaiter(node);
+                  return false;
                }
+               LockSupport.parkNanos(this, remainingNanos);
+            } else {
+               LockSupport.park(this);
             }
-            return result;
+            if (Thread.interrupted()) {
+               interrupted = true; // keep waiting, restore the status below
+            }
+         }
+         return true;
+      } finally {
+         if (interrupted) {
+            Thread.currentThread().interrupt();
          }
       }
-      return result;
    }
-}
\ No newline at end of file
+
+   // Unlinks a timed-out waiter, and any other abandoned one, so repeated timed gets do not pile up
+   private void removeWaiter(Node node) {
+      node.thread = null;
+      retry:
+      while (true) {
+         Node pred = null;
+         for (Node q = waiters, s; q != null && q != RESOLVED; q = s) {
+            s = q.next;
+            if (q.thread != null || q.callback != null) {
+               pred = q;
+            } else if (pred != null) {
+               pred.next = s;
+               if (pred.thread == null && pred.callback == null) { // pred was abandoned meanwhile
+                  continue retry;
+               }
+            } else if (!WAITERS.compareAndSet(this, q, s)) {
+               continue retry;
+            }
+         }
+         return;
+      }
+   }
+}
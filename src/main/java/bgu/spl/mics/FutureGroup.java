@@ -0,0 +1,101 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The results of a batch of events sent with {@link MessageBus#sendEvents(List)},
+ * in the order of the batch. A group takes one array for all results instead of a
+ * {@link Future} per event; {@link #all()} is resolved once every event is completed.
+ * <p>
+ * An event that found no subscriber counts as completed with a null result, see
+ * {@link #getUnrouted()}.
+ *
+ * @param <T> The type of the results.
+ */
+public final class FutureGroup<T> {
+
+    private static final Object NULL_RESULT = new Object(); // the result of resolve(i, null)
+
+    private final AtomicReferenceArray<Object> results;
+    private final AtomicInteger remaining;
+    private final AtomicInteger unrouted = new AtomicInteger();
+    private final Future<List<T>> all = new Future<>();
+
+    FutureGroup(int size) {
+        this.results = new AtomicReferenceArray<>(size);
+        this.remaining = new AtomicInteger(size);
+        if (size == 0) {
+            all.resolve(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @return The number of events in the batch.
+     */
+    public int size() {
+        return results.length();
+    }
+
+    /**
+     * @return true once every event of the batch is completed.
+     */
+    public boolean isDone() {
+        return remaining.get() == 0;
+    }
+
+    /**
+     * @param index The position of an event in the batch.
+     * @return true once that event is completed.
+     */
+    public boolean isDone(int index) {
+        return results.get(index) != null;
+    }
+
+    /**
+     * Returns the result of one event without waiting.
+     *
+     * @param index The position of the event in the batch.
+     * @return The result, or null if the event is not completed yet.
+     */
+    @SuppressWarnings("unchecked")
+    public T getNow(int index) {
+        Object result = results.get(index);
+        return result == NULL_RESULT ? null : (T) result;
+    }
+
+    /**
+     * @return The number of events that were not sent since no micro-service subscribed to them.
+     */
+    public int getUnrouted() {
+        return unrouted.get();
+    }
+
+    /**
+     * @return A future resolved with all results, in the order of the batch, once
+     *         every event is completed. Use it to wait or to register callbacks.
+     */
+    public Future<List<T>> all() {
+        return all;
+    }
+
+    void resolve(int index, T result) {
+        if (!results.compareAndSet(index, null, result == null ? NULL_RESULT : result)) {
+            return;
+        }
+        if (remaining.decrementAndGet() == 0) {
+            List<T> list = new ArrayList<>(results.length());
+            for (int i = 0; i < results.length(); i++) {
+                list.add(getNow(i));
+            }
+            all.resolve(list);
+        }
+    }
+
+    void markUnrouted(int index) {
+        unrouted.incrementAndGet();
+        resolve(index, null);
+    }
+}
@@ -0,0 +1,22 @@
+package bgu.spl.mics;
+
+/**
+ * An event held by the message-bus until its due tick, see
+ * {@link MessageBus#sendEventAt}. Once the tick is broadcast it is put into the
+ * mailbox of the micro-service that holds it, which runs its release action and
+ * sends it on its own thread, as it would have sent the event itself.
+ *
+ * @param <T> The type of the result expected by the event.
+ */
+final class HeldEvent<T> implements Message {
+
+    final MicroService sender;
+    final Envelope<T> envelope;
+    final Runnable onRelease;
+
+    HeldEvent(MicroService sender, Envelope<T> envelope, Runnable onRelease) {
+        this.sender = sender;
+        this.envelope = envelope;
+        this.onRelease = onRelease;
+    }
+}
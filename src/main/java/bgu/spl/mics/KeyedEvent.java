@@ -0,0 +1,15 @@
+package bgu.spl.mics;
+
+/**
+ * An {@link Event} that names the entity it is about. Under
+ * {@link RoutingStrategy#CONSISTENT_HASH} all events with equal routing keys are
+ * delivered to the same subscriber for as long as that subscriber is registered.
+ */
+public interface KeyedEvent<T> extends Event<T> {
+
+    /**
+     * @return The routing key of this event; equal keys must have equal hash codes
+     *         in every run, as {@link String} keys do.
+     */
+    Object getRoutingKey();
+}
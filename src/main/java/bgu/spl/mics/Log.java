@@ -0,0 +1,270 @@
+package bgu.spl.mics;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A small asynchronous logger, so that tracing does not serialize the micro-services
+ * on the synchronized console streams.
+ * <p>
+ * A log call whose level is below the threshold returns at once. Otherwise it puts
+ * the format and its arguments in a bounded ring of preallocated records and returns;
+ * a background thread formats the records and writes them, flushing whenever the ring
+ * runs empty. Each {@code {}} in a format is replaced by the next argument, and a
+ * {@link Throwable} after the last one has its stack trace written. Arguments are
+ * formatted later on the writer thread, so pass values that do not change afterwards.
+ * <p>
+ * When the ring is full, DEBUG and INFO records are dropped and counted; WARN and
+ * ERROR records wait for room. The threshold is INFO unless set by
+ * {@code -Dbgu.spl.mics.log=<level>} or {@link #setLevel(Level)}; WARN and ERROR go
+ * to the error stream. The ring is drained when the JVM exits and by {@link #flush()}.
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int CAPACITY = 1 << 14;
+    private static final Object[] NO_ARGUMENTS = {};
+
+    private static final class Record {
+        volatile long sequence; // the ring position the record is free for, plus one once written
+        Level level;
+        String format;
+        Object first;
+        Object second;
+        Object third;
+        int arguments;
+
+        Record(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Record[] RING = new Record[CAPACITY];
+    private static final AtomicLong TAIL = new AtomicLong(); // the next position to claim
+    private static final LongAdder DROPPED = new LongAdder();
+    private static volatile long written = 0; // records written and flushed
+    private static volatile boolean writerParked = false;
+    private static volatile Level threshold = Level.valueOf(System.getProperty("bgu.spl.mics.log", "INFO").toUpperCase());
+    private static volatile PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false);
+    private static volatile PrintStream err = new PrintStream(new FileOutputStream(FileDescriptor.err), false);
+    private static final Thread WRITER;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Record(i);
+        }
+        WRITER = new Thread(Log::write, "log-writer");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * @return Whether records of {@code level} are written; use it to skip work that
+     * only builds arguments for a record.
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    /**
+     * @return Whether DEBUG records are written; guards debug calls on hot paths,
+     * whose arguments would otherwise be boxed for nothing.
+     */
+    public static boolean isDebugEnabled() {
+        return threshold == Level.DEBUG;
+    }
+
+    /**
+     * Sets the lowest level that is written; {@link Level#OFF} writes nothing.
+     */
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    /**
+     * Writes all following records to {@code stream}, of every level.
+     */
+    public static void setOutput(PrintStream stream) {
+        flush();
+        out = stream;
+        err = stream;
+    }
+
+    /**
+     * @return The number of DEBUG and INFO records dropped because the ring was full.
+     */
+    public static long getDroppedRecords() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * Waits until every record logged so far has been written and flushed.
+     */
+    public static void flush() {
+        long target = TAIL.get();
+        while (written < target) {
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(100_000L);
+        }
+    }
+
+    public static void debug(String format) {
+        log(Level.DEBUG, format, null, null, null, 0);
+    }
+
+    public static void debug(String format, Object first) {
+        log(Level.DEBUG, format, first, null, null, 1);
+    }
+
+    public static void debug(String format, Object first, Object second) {
+        log(Level.DEBUG, format, first, second, null, 2);
+    }
+
+    public static void debug(String format, Object first, Object second, Object third) {
+        log(Level.DEBUG, format, first, second, third, 3);
+    }
+
+    public static void info(String format) {
+        log(Level.INFO, format, null, null, null, 0);
+    }
+
+    public static void info(String format, Object first) {
+        log(Level.INFO, format, first, null, null, 1);
+    }
+
+    public static void info(String format, Object first, Object second) {
+        log(Level.INFO, format, first, second, null, 2);
+    }
+
+    public static void info(String format, Object first, Object second, Object third) {
+        log(Level.INFO, format, first, second, third, 3);
+    }
+
+    public static void warn(String format) {
+        log(Level.WARN, format, null, null, null, 0);
+    }
+
+    public static void warn(String format, Object first) {
+        log(Level.WARN, format, first, null, null, 1);
+    }
+
+    public static void warn(String format, Object first, Object second) {
+        log(Level.WARN, format, first, second, null, 2);
+    }
+
+    public static void warn(String format, Object first, Object second, Object third) {
+        log(Level.WARN, format, first, second, third, 3);
+    }
+
+    public static void error(String format) {
+        log(Level.ERROR, format, null, null, null, 0);
+    }
+
+    public static void error(String format, Object first) {
+        log(Level.ERROR, format, first, null, null, 1);
+    }
+
+    public static void error(String format, Object first, Object second) {
+        log(Level.ERROR, format, first, second, null, 2);
+    }
+
+    public static void error(String format, Object first, Object second, Object third) {
+        log(Level.ERROR, format, first, second, third, 3);
+    }
+
+    private static void log(Level level, String format, Object first, Object second, Object third, int arguments) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Record record;
+        long position;
+        while (true) {
+            position = TAIL.get();
+            record = RING[(int) (position & (CAPACITY - 1))];
+            long lag = record.sequence - position;
+            if (lag == 0) {
+                if (TAIL.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (lag < 0) { // the ring is full
+                if (level.compareTo(Level.WARN) < 0) {
+                    DROPPED.increment();
+                    return;
+                }
+                LockSupport.unpark(WRITER);
+                Thread.yield();
+            }
+        }
+        record.level = level;
+        record.format = format;
+        record.first = first;
+        record.second = second;
+        record.third = third;
+        record.arguments = arguments;
+        record.sequence = position + 1;
+        if (writerParked) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    private static void write() {
+        long head = 0;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            Record record = RING[(int) (head & (CAPACITY - 1))];
+            if (record.sequence != head + 1) {
+                out.flush();
+                err.flush();
+                written = head;
+                writerParked = true;
+                if (RING[(int) (head & (CAPACITY - 1))].sequence != head + 1) {
+                    LockSupport.parkNanos(100_000_000L);
+                }
+                writerParked = false;
+                continue;
+            }
+            Level level = record.level;
+            String format = record.format;
+            Object[] arguments = record.arguments == 0 ? NO_ARGUMENTS
+                    : record.arguments == 1 ? new Object[]{record.first}
+                    : record.arguments == 2 ? new Object[]{record.first, record.second}
+                    : new Object[]{record.first, record.second, record.third};
+            record.first = record.second = record.third = null;
+            record.format = null;
+            record.sequence = head + CAPACITY; // free for the next round of the ring
+            head++;
+
+            line.setLength(0);
+            Throwable thrown = format(line, format, arguments);
+            PrintStream stream = level.compareTo(Level.WARN) >= 0 ? err : out;
+            stream.println(line);
+            if (thrown != null) {
+                thrown.printStackTrace(stream);
+            }
+        }
+    }
+
+    // Fills in the placeholders; returns a trailing throwable that had no placeholder
+    private static Throwable format(StringBuilder line, String format, Object[] arguments) {
+        int next = 0;
+        int from = 0;
+        for (int at; next < arguments.length && (at = format.indexOf("{}", from)) >= 0; next++) {
+            line.append(format, from, at).append(arguments[next]);
+            from = at + 2;
+        }
+        line.append(format, from, format.length());
+        if (next == arguments.length - 1 && arguments[next] instanceof Throwable) {
+            return (Throwable) arguments[next];
+        }
+        return null;
+    }
+}
@@ -0,0 +1,427 @@
+package bgu.spl.mics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The message queue of a single registered {@link MicroService}.
+ * A mailbox has many senders but exactly one consumer: the thread running the
+ * micro-service's event loop. A mailbox may be bounded, in which case its
+ * {@link OverflowPolicy} decides what happens to messages that arrive while it is
+ * full. Every mailbox counts the messages it dropped and the time senders spent
+ * blocked on it.
+ * <p>
+ * Events arrive wrapped in an {@link Envelope}. From the moment the consumer takes
+ * an event until its callback returns, the mailbox holds the envelope in a field,
+ * so completing the event from its callback is a field read. An event still not
+ * completed when its callback returns, or taken through {@link MessageBus#awaitMessage},
+ * is kept in flight in a map until it is completed. An envelope is published in the
+ * field before it leaves the queue and in the map before it leaves the field, so a
+ * thread looking for an event in that order always finds it.
+ * <p>
+ * A {@link ControlMessage} goes to a separate control lane that the consumer always
+ * drains before the data lane, so it is handled next however many messages are
+ * queued. The control lane is unbounded and ignores the overflow policy.
+ * <p>
+ * A mailbox created while quiescence detection is on counts every message it takes
+ * until the message is handled or dropped; see {@link MessageBusImpl#enableQuiescenceDetection()}.
+ */
+public abstract class Mailbox {
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final Map<Event<?>, Envelope<?>> inFlight = new ConcurrentHashMap<>();
+    private volatile Envelope<?> handling; // the event the service is handling, not in inFlight
+    private final AtomicInteger unfinishedEvents = new AtomicInteger();
+    private final AtomicInteger unsentReleases = new AtomicInteger();
+    private final Queue<Message> controlLane = new ConcurrentLinkedQueue<>();
+    private volatile Runnable listener;
+    private volatile Thread controlWaiter; // the consumer, while it waits in awaitControl
+    private Quiescence quiescence; // null unless quiescence detection is on
+    private final AtomicLong counted = new AtomicLong(); // for quiescence; negative once closed
+
+    Mailbox(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Creates a mailbox for the given settings. Policies that only ever refuse the
+     * arriving message get the lock-free single-consumer implementation; policies
+     * that discard already queued messages need a queue senders may remove from.
+     *
+     * @param capacity      The maximal number of queued messages ({@link Integer#MAX_VALUE} for unbounded).
+     * @param policy        What to do with a message that arrives while the mailbox is full.
+     * @param coalescedType The message type superseded under {@link OverflowPolicy#COALESCE}, may be null.
+     */
+    public static Mailbox create(int capacity, OverflowPolicy policy, Class<? extends Message> coalescedType) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive, got: " + capacity);
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+            case COALESCE:
+                return new BlockingMailbox(capacity, policy, coalescedType);
+            default:
+                return new MpscMailbox(capacity, policy);
+        }
+    }
+
+    /**
+     * Adds a message to the mailbox, applying the overflow policy if it is full.
+     * Control messages skip the queued messages and are never dropped.
+     *
+     * @PARAM message The message to add.
+     * @POST The message is queued, or it (or an older message) was counted as dropped.
+     * @throws InterruptedException if interrupted while blocked on a full mailbox.
+     */
+    public final void put(Message message) throws InterruptedException {
+        count(1);
+        if (message instanceof ControlMessage) {
+            controlLane.offer(message);
+            Thread waiter = controlWaiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+            wakeConsumer();
+            signal();
+        } else {
+            try {
+                enqueue(message);
+            } catch (InterruptedException e) {
+                uncount(1);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes the next message, waiting for one if the mailbox is empty.
+     * Must only be called by the consumer of the mailbox.
+     */
+    public final Message take() throws InterruptedException {
+        while (true) {
+            Message control = controlLane.poll();
+            if (control != null) {
+                return control;
+            }
+            Message message = takeData();
+            if (message != null) {
+                return message;
+            }
+        }
+    }
+
+    public final int size() {
+        // the control lane is almost always empty, and counting a non-empty one walks it
+        return controlLane.isEmpty() ? dataSize() : dataSize() + controlLane.size();
+    }
+
+    /**
+     * Removes the next message without waiting, or returns null if there is none.
+     * Must only be called by the consumer of the mailbox.
+     */
+    final Message poll() {
+        Message control = controlLane.poll();
+        return control != null ? control : pollData();
+    }
+
+    /**
+     * Removes the next control message, or returns null if there is none. Lets the
+     * consumer handle a control message that arrived while it works through a batch
+     * before the rest of the batch. Must only be called by the consumer of the mailbox.
+     */
+    final Message pollControl() {
+        return controlLane.poll();
+    }
+
+    /**
+     * Waits at most {@code nanos} for a control message, for a consumer that waits
+     * on something else in a callback and must not miss one. May return early.
+     * Must only be called by the consumer of the mailbox.
+     *
+     * @return Whether a control message is waiting.
+     */
+    final boolean awaitControl(long nanos) {
+        controlWaiter = Thread.currentThread();
+        try {
+            // published before the check, so a sender adding one after it unparks this thread
+            if (controlLane.isEmpty()) {
+                LockSupport.parkNanos(this, nanos);
+            }
+            return !controlLane.isEmpty();
+        } finally {
+            controlWaiter = null;
+        }
+    }
+
+    /** Adds a message to the data lane, applying the overflow policy if it is full. */
+    abstract void enqueue(Message message) throws InterruptedException;
+
+    /**
+     * Adds messages to the data lane in order, applying the overflow policy to each.
+     * Implementations may claim room for all of them at once and wake the consumer once.
+     */
+    void enqueueAll(List<? extends Message> messages) throws InterruptedException {
+        for (Message message : messages) {
+            enqueue(message);
+        }
+    }
+
+    /**
+     * Takes the next message of the data lane, waiting while it is empty. May return
+     * null instead once a control message has arrived.
+     */
+    abstract Message takeData() throws InterruptedException;
+
+    /** Removes the next message of the data lane without waiting, or returns null if there is none. */
+    abstract Message pollData();
+
+    /**
+     * Returns the envelope of {@code event} if it is in the data lane, or null. May be
+     * called by any thread; walks the whole lane.
+     */
+    abstract Envelope<?> findQueued(Event<?> event);
+
+    abstract int dataSize();
+
+    /** Wakes the consumer if it is waiting in {@link #takeData()}, after a control message was added. */
+    abstract void wakeConsumer();
+
+    boolean hasControlMessages() {
+        return !controlLane.isEmpty();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    /**
+     * Returns the number of events sent to this mailbox that are not completed yet,
+     * whether they are still queued or already taken by the service.
+     */
+    public int getUnfinishedEvents() {
+        return unfinishedEvents.get();
+    }
+
+    /** Adds an event in its envelope, counting it as unfinished until it is completed. */
+    void putEvent(Envelope<?> envelope) throws InterruptedException {
+        unfinishedEvents.incrementAndGet();
+        put(envelope);
+    }
+
+    /** Adds a batch of events in their envelopes, in order, with one bulk operation where possible. */
+    void putEvents(List<? extends Envelope<?>> envelopes) throws InterruptedException {
+        unfinishedEvents.addAndGet(envelopes.size());
+        count(envelopes.size());
+        enqueueAll(envelopes);
+    }
+
+    /**
+     * Returns the number of held events handed to this mailbox on their due tick that
+     * its service has not sent yet, see {@link HeldEvent}.
+     */
+    int getUnsentReleases() {
+        return unsentReleases.get();
+    }
+
+    /** Counts a held event as unsent, before it is added to this mailbox. */
+    void releasing() {
+        unsentReleases.incrementAndGet();
+    }
+
+    /** Called by the consumer once it has sent a held event taken from this mailbox. */
+    void released() {
+        unsentReleases.decrementAndGet();
+    }
+
+    /** Counts every message added from now on for quiescence detection. Called before the mailbox is published. */
+    void trackQuiescence(Quiescence quiescence) {
+        this.quiescence = quiescence;
+    }
+
+    /** Called by the consumer once the callback of a taken message has returned. */
+    final void handled() {
+        Envelope<?> envelope = handling;
+        if (envelope != null) {
+            if (envelope.isClaimed()) {
+                handling = null;
+            } else {
+                // in flight before it stops being the handled one, so release always finds it
+                inFlight.put(envelope.getEvent(), envelope);
+                handling = null;
+                if (envelope.isClaimed()) { // completed by another thread meanwhile
+                    inFlight.remove(envelope.getEvent(), envelope);
+                }
+            }
+        }
+        uncount(1);
+    }
+
+    private void count(int messages) {
+        if (quiescence != null) {
+            quiescence.added(messages);
+            if (counted.addAndGet(messages) < 0) { // closed: nobody will ever handle them
+                quiescence.removed(messages);
+            }
+        }
+    }
+
+    private void uncount(int messages) {
+        if (quiescence != null && counted.addAndGet(-messages) >= 0) {
+            quiescence.removed(messages);
+        }
+    }
+
+    /** Sets the action run after every message added to this mailbox, e.g. scheduling its consumer. */
+    void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /** Called by implementations once a message has been added. */
+    final void signal() {
+        Runnable current = listener;
+        if (current != null) {
+            current.run();
+        }
+    }
+
+    void recordDrop(Message dropped) {
+        droppedMessages.increment();
+        uncount(1);
+        if (dropped instanceof Envelope) {
+            if (((Envelope<?>) dropped).claim()) { // unless it was completed while queued
+                unfinishedEvents.decrementAndGet();
+            }
+        } else if (dropped instanceof HeldEvent) {
+            released();
+        }
+    }
+
+    void recordBlocked(long nanos) {
+        blockedNanos.add(nanos);
+    }
+
+    /**
+     * Called by implementations with a message of the data lane before it is removed,
+     * holding the envelope of an event as the handled one from then on.
+     */
+    final void taking(Message message) {
+        if (message instanceof Envelope) {
+            handling = (Envelope<?>) message;
+        }
+    }
+
+    /**
+     * Unwraps a message taken by the service's own loop. The envelope of an event
+     * stays the handled one until {@link #handled()}.
+     */
+    Message unwrap(Message message) {
+        return message instanceof Envelope ? ((Envelope<?>) message).getEvent() : message;
+    }
+
+    /** Unwraps a taken message, keeping the envelope of an event in flight until it is completed. */
+    Message open(Message message) {
+        if (message instanceof Envelope) {
+            Envelope<?> envelope = (Envelope<?>) message;
+            inFlight.put(envelope.getEvent(), envelope);
+            handling = null;
+            return envelope.getEvent();
+        }
+        return message;
+    }
+
+    /**
+     * Claims the envelope of {@code event} for completion: the handled one, or else
+     * the one in flight.
+     *
+     * @return The envelope, or null if this mailbox has none or it was already completed.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Envelope<T> release(Event<T> event) {
+        Envelope<T> envelope = (Envelope<T>) handling;
+        boolean handled = envelope != null && envelope.getEvent() == event;
+        if (!handled) {
+            envelope = (Envelope<T>) inFlight.remove(event);
+        }
+        if (envelope == null || !envelope.claim()) {
+            return null;
+        }
+        if (handled && handling != envelope) { // the callback returned meanwhile and put it in flight
+            inFlight.remove(event, envelope);
+        }
+        unfinishedEvents.decrementAndGet();
+        return envelope;
+    }
+
+    /**
+     * Claims the envelope of {@code event} for completion wherever it is: still queued,
+     * handled, or in flight. Looks in the order an envelope moves through the mailbox,
+     * so one that moves on meanwhile is found at its next stop. Walks the queue.
+     *
+     * @return The envelope, or null if this mailbox has none or it was already completed.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Envelope<T> releaseAnywhere(Event<T> event) {
+        Envelope<T> envelope = (Envelope<T>) findQueued(event);
+        if (envelope == null) {
+            return release(event);
+        }
+        if (!envelope.claim()) {
+            return null;
+        }
+        // its consumer will still take and handle it, but can no longer complete it
+        unfinishedEvents.decrementAndGet();
+        return envelope;
+    }
+
+    /**
+     * Discards every queued and in-flight envelope. Called once the mailbox is
+     * unregistered, by the thread that consumed it.
+     *
+     * @return The number of futures that will now never be resolved.
+     */
+    int discardEnvelopes() {
+        long left = counted.getAndSet(Long.MIN_VALUE / 2); // queued, or taken and never handled
+        if (quiescence != null && left > 0) {
+            quiescence.removed(left);
+        }
+        int discarded = 0;
+        for (Envelope<?> envelope : inFlight.values()) {
+            if (envelope.claim()) {
+                discarded++;
+            }
+        }
+        inFlight.clear();
+        Message message;
+        while ((message = poll()) != null) {
+            if (message instanceof Envelope && ((Envelope<?>) message).claim()) { // not completed while queued
+                discarded++;
+            }
+        }
+        handling = null;
+        unfinishedEvents.set(0);
+        return discarded;
+    }
+}
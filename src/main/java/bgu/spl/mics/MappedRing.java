@@ -0,0 +1,227 @@
+package bgu.spl.mics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer single-consumer ring buffer of byte records in a memory-mapped
+ * file, so that two processes on one host can pass messages without copying them
+ * through the kernel.
+ * <p>
+ * The file starts with the read and the write position of the ring, each on its own
+ * cache line, followed by {@code capacity} bytes of records. The first line also
+ * holds a marker and the capacity, written by {@link #create} after it resets the
+ * positions, so that {@link #open} never attaches to a half-made ring or to one
+ * of another size. A record is its length
+ * and its bytes, padded to 8 bytes; a record that does not fit before the end of the
+ * ring is written at its start, after a padding marker. The producer publishes a
+ * record by a release store of the write position and the consumer frees it by a
+ * release store of the read position, so neither side takes a lock.
+ * <p>
+ * At most one thread may write and one thread may read, in any process. One of the
+ * two processes creates the ring, dropping whatever an earlier run left in the
+ * file, and the other opens it once it is created.
+ */
+public final class MappedRing implements Closeable {
+
+    private static final VarHandle POSITION =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long MAGIC = 0x52494E4731L; // "RING1"
+    private static final int READ_POSITION = 0;
+    private static final int MAGIC_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int WRITE_POSITION = 64;
+    private static final int HEADER_BYTES = 128;
+    private static final int LENGTH_BYTES = 4;
+    private static final int PADDING = -1;
+    private static final int SPINS = 128; // busy waits before parking
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer records;
+    private final int capacity;
+    private long readCache;  // the producer's last view of the read position
+    private long writeCache; // the consumer's last view of the write position
+
+    private MappedRing(FileChannel channel, int capacity) throws IOException {
+        this.channel = channel;
+        this.capacity = capacity;
+        this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity);
+        this.mapped.order(ByteOrder.nativeOrder());
+        this.records = mapped.slice(HEADER_BYTES, capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Creates an empty ring in {@code file}, replacing the file if it exists, and maps it.
+     *
+     * @param file     The file of the ring.
+     * @param capacity The number of bytes of records, a power of two of at least 64.
+     */
+    public static MappedRing create(Path file, int capacity) throws IOException {
+        checkCapacity(capacity);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedRing ring = new MappedRing(channel, capacity);
+            POSITION.set(ring.mapped, READ_POSITION, 0L);
+            POSITION.set(ring.mapped, WRITE_POSITION, 0L);
+            ring.mapped.putLong(CAPACITY_OFFSET, capacity);
+            POSITION.setRelease(ring.mapped, MAGIC_OFFSET, MAGIC); // last, so an opener sees the rest
+            return ring;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the ring that another process created in {@code file} by {@link #create}.
+     *
+     * @param file     The file of the ring.
+     * @param capacity The capacity the ring was created with.
+     * @throws IOException If the file does not hold a ring of this capacity.
+     */
+    public static MappedRing open(Path file, int capacity) throws IOException {
+        checkCapacity(capacity);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_BYTES + (long) capacity) {
+                throw new IOException(file + " does not hold a ring of " + capacity + " bytes");
+            }
+            MappedRing ring = new MappedRing(channel, capacity);
+            if ((long) POSITION.getAcquire(ring.mapped, MAGIC_OFFSET) != MAGIC
+                    || ring.mapped.getLong(CAPACITY_OFFSET) != capacity) {
+                throw new IOException(file + " does not hold a ring of " + capacity + " bytes");
+            }
+            return ring;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The largest record the ring takes.
+     */
+    public int getMaxRecordSize() {
+        return capacity / 2 - LENGTH_BYTES;
+    }
+
+    /**
+     * Writes the remaining bytes of {@code record} as one record, if there is room.
+     *
+     * @PRE record.remaining() <= getMaxRecordSize()
+     * @POST if true is returned, the record is visible to the consumer.
+     * @return Whether the record was written.
+     */
+    public boolean offer(ByteBuffer record) {
+        int length = record.remaining();
+        if (length > getMaxRecordSize()) {
+            throw new IllegalArgumentException("A record of " + length + " bytes does not fit the ring");
+        }
+        long write = (long) POSITION.getOpaque(mapped, WRITE_POSITION);
+        int index = (int) (write & (capacity - 1));
+        int size = align(LENGTH_BYTES + length);
+        int wasted = size > capacity - index ? capacity - index : 0;
+        if (write + wasted + size - readCache > capacity) {
+            readCache = (long) POSITION.getAcquire(mapped, READ_POSITION);
+            if (write + wasted + size - readCache > capacity) {
+                return false;
+            }
+        }
+        if (wasted > 0) {
+            records.putInt(index, PADDING);
+            index = 0;
+        }
+        records.putInt(index, length);
+        records.put(index + LENGTH_BYTES, record, record.position(), length);
+        record.position(record.limit());
+        POSITION.setRelease(mapped, WRITE_POSITION, write + wasted + size);
+        return true;
+    }
+
+    /**
+     * Writes {@code record}, waiting for room as long as the consumer lags behind.
+     */
+    public void put(ByteBuffer record) {
+        for (int spins = 0; !offer(record); spins++) {
+            backOff(spins);
+        }
+    }
+
+    /**
+     * Reads the next record into {@code into}, which is cleared first and then holds
+     * the record between its position and limit.
+     *
+     * @PRE into.capacity() >= getMaxRecordSize()
+     * @return Whether there was a record.
+     */
+    public boolean poll(ByteBuffer into) {
+        long read = (long) POSITION.getOpaque(mapped, READ_POSITION);
+        if (read == writeCache) {
+            writeCache = (long) POSITION.getAcquire(mapped, WRITE_POSITION);
+            if (read == writeCache) {
+                return false;
+            }
+        }
+        int index = (int) (read & (capacity - 1));
+        int length = records.getInt(index);
+        if (length == PADDING) {
+            read += capacity - index;
+            index = 0;
+            length = records.getInt(index);
+        }
+        into.clear();
+        into.put(0, records, index + LENGTH_BYTES, length);
+        into.limit(length);
+        POSITION.setRelease(mapped, READ_POSITION, read + align(LENGTH_BYTES + length));
+        return true;
+    }
+
+    /**
+     * Same as {@link #poll(ByteBuffer)}, waiting at most the given time for a record.
+     */
+    public boolean poll(ByteBuffer into, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int spins = 0; !poll(into); spins++) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            backOff(spins);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close(); // the mapping itself is released with the buffer
+    }
+
+    private static void checkCapacity(int capacity) {
+        if (capacity < 64 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two of at least 64, got: " + capacity);
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static void backOff(int spins) {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(10_000L);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package bgu.spl.mics;
 
+import java.util.List;
+
 /**
  * The message-bus is a shared object used for communication between
  * micro-services.
@@ -40,6 +42,18 @@ public interface MessageBus {
      */
     <T> void complete(Event<T> e, T result);
 
+    /**
+     * Notifies the MessageBus that the event {@code e}, which was delivered to the
+     * micro-service {@code m}, is completed and its result was {@code result}.
+     * The {@link Future} of {@code e} is found in {@code m}'s mailbox only.
+     * <p>
+     * @param <T>    The type of the result expected by the completed event.
+     * @param m      The micro-service that received {@code e}.
+     * @param e      The completed event.
+     * @param result The resolved result of the completed event.
+     */
+    <T> void complete(MicroService m, Event<T> e, T result);
+
     /**
      * Adds the {@link Broadcast} {@code b} to the message queues of all the
      * micro-services subscribed to {@code b.getClass()}.
@@ -60,6 +74,48 @@ public interface MessageBus {
      */
     <T> Future<T> sendEvent(Event<T> e);
 
+    /**
+     * Sends a batch of {@link Event}s, each as with {@link #sendEvent(Event)}, in one
+     * call: the subscribers of each event type are looked up once, and the events
+     * bound for one micro-service are added to its queue in order with one bulk
+     * operation. This method should be non-blocking.
+     * <p>
+     * @param <T>    The type of the result expected by the events.
+     * @param events The events to send.
+     * @return A {@link FutureGroup} holding the results of all events, in the order of {@code events}.
+     */
+    <T> FutureGroup<T> sendEvents(List<? extends Event<T>> events);
+
+    /**
+     * Holds the {@link Event} {@code e} until a {@link ClockTick} with time
+     * {@code dueTick} or later is broadcast, and then has {@code sender} send it like
+     * {@link #sendEvent(Event)} from its own thread: the event is added to the queue of
+     * {@code sender} ahead of the tick, in earliest-deadline order, and in the order
+     * they were held within one deadline. An event that is already due is sent at once.
+     * Held events are discarded when {@code sender} is unregistered.
+     * <p>
+     * @param <T>       The type of the result expected by the event and its corresponding future object.
+     * @param sender    The micro-service holding the event.
+     * @param e         The event to send.
+     * @param dueTick   The tick from which on the event is sent.
+     * @param onRelease Run by {@code sender} right before the event is sent, may be null.
+     * @return {@link Future<T>} object to be resolved once the processing is complete.
+     *         It is never resolved if the event is discarded or finds no subscriber.
+     */
+    <T> Future<T> sendEventAt(MicroService sender, Event<T> e, int dueTick, Runnable onRelease);
+
+    /**
+     * @param sender A micro-service that may hold events.
+     * @return The number of events held for {@code sender} that are not due yet.
+     */
+    int getHeldEvents(MicroService sender);
+
+    /**
+     * @return The earliest tick at which a held event is due, or {@link Integer#MAX_VALUE}
+     *         if no event is held.
+     */
+    int getNextHeldTick();
+
     /**
      * Allocates a message-queue for the {@link MicroService} {@code m}.
      * <p>
@@ -93,5 +149,21 @@ public interface MessageBus {
      *                              to became available.
      */
     Message awaitMessage(MicroService m) throws InterruptedException;
-    
+
+    /**
+     * Batch version of {@link #awaitMessage(bgu.spl.mics.MicroService)}: waits until
+     * at least one message is available in {@code m}'s queue and then moves up to
+     * {@code maxMessages} queued messages, in order, into {@code batch} in one call.
+     * The method should throw the {@link IllegalStateException} in the case
+     * where {@code m} was never registered.
+     * <p>
+     * @param m           The micro-service requesting messages from its message queue.
+     * @param batch       The list the taken messages are appended to.
+     * @param maxMessages The maximal number of messages to take, at least 1.
+     * @return The number of messages appended to {@code batch} (at least 1).
+     * @throws InterruptedException if interrupted while waiting for a message
+     *                              to became available.
+     */
+    int awaitMessages(MicroService m, List<Message> batch, int maxMessages) throws InterruptedException;
+
 }
@@ -2,6 +2,8 @@ package bgu.spl.mics;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 
 
@@ -11,10 +13,17 @@ import java.util.concurrent.*;
  * Only private fields and methods can be added to this class.
  */
     public class MessageBusImpl implements MessageBus {
-        private final Map<Class<? extends Event<?>>, Queue<MicroService>> eventSubscribers = new ConcurrentHashMap<>();
-        private final Map<Class<? extends Broadcast>, List<MicroService>> broadcastSubscribers = new ConcurrentHashMap<>();
-        private final Map<Event<?>, Future<?>> eventFutures = new ConcurrentHashMap<>();
-        private final Map<MicroService, BlockingQueue<Message>> microServiceQueues = new ConcurrentHashMap<>();
+        // a power of two of at least the number of cores, so that busy types rarely share a shard
+        private static final int DEFAULT_SHARDS =
+                Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1));
+
+        private final Shard[] shards = newShards(Integer.getInteger("bgu.spl.mics.shards", DEFAULT_SHARDS));
+        private final Map<MicroService, Mailbox> microServiceQueues = new ConcurrentHashMap<>();
+        private final Map<String, MailboxSpec> mailboxSpecs = new ConcurrentHashMap<>();
+        private volatile MailboxSpec defaultMailboxSpec = new MailboxSpec(Integer.MAX_VALUE, OverflowPolicy.BLOCK, null);
+        private final LongAdder outstandingFutures = new LongAdder();
+        private volatile Quiescence quiescence; // null unless quiescence detection is on
+        private final TimingWheel<HeldEvent<?>> heldEvents = new TimingWheel<>(0); // guarded by itself, its time is the clock
 
         private static class SingletonHolderMessageBusImpl { 
             private static final MessageBusImpl INSTANCE = new MessageBusImpl();
@@ -26,6 +35,8 @@ import java.util.concurrent.*;
         
         /**
          * Registers a micro-service by allocating a message queue for it.
+         * The mailbox is sized by the settings configured for the service name,
+         * or by the default settings (unbounded unless configured otherwise).
          *
          * @PARAM m The micro-service to register.
          * @PARAM m != null
@@ -33,8 +44,14 @@ import java.util.concurrent.*;
          */
         @Override
         public void register(MicroService m) {
-            microServiceQueues.putIfAbsent(m, new LinkedBlockingQueue<>());
-            System.out.println("Registered MicroService: " + m.getName());
+            microServiceQueues.computeIfAbsent(m, key -> {
+                Mailbox mailbox = mailboxSpecs.getOrDefault(key.getName(), defaultMailboxSpec).create();
+                if (quiescence != null) {
+                    mailbox.trackQuiescence(quiescence);
+                }
+                return mailbox;
+            });
+            Log.info("Registered MicroService: {}", m.getName());
         }
 
          /**
@@ -47,56 +64,106 @@ import java.util.concurrent.*;
          */
         @Override
         public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
-            eventSubscribers.putIfAbsent(type, new LinkedList<>());
-            Queue <MicroService> subscribers = eventSubscribers.get(type);
-            synchronized(subscribers){
-                if (!subscribers.contains(m)) {  
-                    subscribers.add(m);
-                }
-            }
+            Shard shard = shardOf(type);
+            shard.eventSubscribers.compute(type, (key, table) -> table == null
+                    ? new RoutingTable(new MicroService[]{m}, shard.routingStrategies.getOrDefault(key, RoutingStrategy.ROUND_ROBIN))
+                    : table.with(m));
+        }
+
+        /**
+         * Selects how events of the given type are spread among their subscribers.
+         * Takes effect immediately, also for event types that already have subscribers.
+         *
+         * @PARAM type The class of the event.
+         * @PARAM strategy The routing strategy for events of that type.
+         * @PRE type != null && strategy != null
+         * @POST events of the given type are routed by strategy
+         */
+        public void setRoutingStrategy(Class<? extends Event<?>> type, RoutingStrategy strategy) {
+            Shard shard = shardOf(type);
+            shard.routingStrategies.put(type, strategy);
+            shard.eventSubscribers.computeIfPresent(type, (key, table) -> table.routedBy(strategy));
         }
 
         /**
          * Subscribes a micro-service to receive broadcasts of the given type.
+         * A new immutable snapshot of the subscribers is published on every change,
+         * so senders iterating an older snapshot are never blocked by it.
          *
          * @PARAM type The class of the broadcast to subscribe to.
          * @PARAM m The subscribing micro-service.
          * @PARAM type != null && m != null
-         * @POST broadcastSubscribers.get(type).contains(m)
+         * @POST broadcastSubscribers.get(type) contains m
          */
         @Override
         public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
-            broadcastSubscribers.putIfAbsent(type, new ArrayList<>());
-            List<MicroService> subscribers = broadcastSubscribers.get(type);
-            synchronized(subscribers){
-                if (!subscribers.contains(m)) { 
-                    subscribers.add(m);
-                    System.out.println(m.getName() + " subscribed to Broadcast: " + type.getSimpleName());
+            boolean[] added = {false};
+            shardOf(type).broadcastSubscribers.compute(type, (key, subscribers) -> {
+                if (subscribers == null) {
+                    added[0] = true;
+                    return new MicroService[]{m};
+                }
+                if (indexOf(subscribers, m) >= 0) {
+                    return subscribers;
                 }
+                added[0] = true;
+                MicroService[] snapshot = Arrays.copyOf(subscribers, subscribers.length + 1);
+                snapshot[subscribers.length] = m;
+                return snapshot;
+            });
+            if (added[0]) {
+                Log.debug("{} subscribed to Broadcast: {}", m.getName(), type.getSimpleName());
             }
-            
         }
 
         /**
          * Completes an event with a given result and resolves its associated future.
+         * The caller does not say which micro-service received the event, so every
+         * mailbox is searched, queue included, and an event may be completed before it
+         * is handled; micro-services complete the events they handle through
+         * {@link #complete(MicroService, Event, Object)}, which needs no search.
          *
          * @PARAM e The completed event.
          * @PARAM result The result of the event.
-         * @PRE e != null && eventFutures.containsKey(e)
-         * @POST eventFutures.get(e) == null
+         * @PRE e != null
+         * @POST The future of e is resolved, unless it already was.
          */
         @Override
         public <T> void complete(Event<T> e, T result) {
-            @SuppressWarnings("unchecked")
-            Future<T> future = (Future<T>) eventFutures.get(e);
-            if (future != null) {
-                future.resolve(result); 
-                eventFutures.remove(e);
+            for (Mailbox mailbox : microServiceQueues.values()) {
+                if (resolve(mailbox.releaseAnywhere(e), result)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Completes an event delivered to m. The future travels with the event in
+         * its envelope, which m's mailbox holds while m handles the event, so
+         * completing it from its callback is a field read; later it is a lookup in
+         * m's own mailbox only.
+         *
+         * @PARAM m The micro-service that received e.
+         * @PARAM e The completed event.
+         * @PARAM result The result of the event.
+         * @PRE m != null && e != null
+         * @POST The future of e is resolved and m's mailbox no longer holds e in flight.
+         */
+        @Override
+        public <T> void complete(MicroService m, Event<T> e, T result) {
+            Mailbox mailbox = microServiceQueues.get(m);
+            if (mailbox != null) {
+                resolve(mailbox.release(e), result);
             }
         }
         
         /**
          * Sends a broadcast to all subscribed micro-services.
+         * Delivery iterates the snapshot of subscribers that was current when the
+         * broadcast was sent and holds no lock, so a slow mailbox never stalls other
+         * broadcasters, subscriptions or unregistrations.
+         * A {@link ClockTick} first hands the held events that are due by its time back
+         * to their senders, so they are sent ahead of the tick itself.
          *
          * @PARAM b The broadcast message.
          * @PRE b != null
@@ -104,61 +171,106 @@ import java.util.concurrent.*;
          */
         @Override
         public void sendBroadcast(Broadcast b) {
-            List<MicroService> subscribers = broadcastSubscribers.get(b.getClass());
-            synchronized(subscribers){
-                if (subscribers == null || subscribers.isEmpty()) {
-                    System.out.println("No subscribers found for broadcast: " + b.getClass().getSimpleName());
-                } else {
-                    for (MicroService m : subscribers) {
-                        if (!microServiceQueues.containsKey(m)) {
-                            System.out.println("Error: MicroService " + m.getName() + " is not registered in microServiceQueues.");
-                        }
-                        try {
-                            microServiceQueues.get(m).put(b);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    }
+            if (b instanceof ClockTick) {
+                releaseHeldEvents(((ClockTick) b).getTime());
+            }
+            Shard shard = shardOf(b.getClass());
+            shard.broadcastsSent.increment();
+            MicroService[] subscribers = shard.broadcastSubscribers.get(b.getClass());
+            if (subscribers == null || subscribers.length == 0) {
+                Log.debug("No subscribers found for broadcast: {}", b.getClass().getSimpleName());
+                return;
+            }
+            for (MicroService m : subscribers) {
+                Mailbox queue = microServiceQueues.get(m);
+                if (queue == null) {
+                    continue; // unregistered after the snapshot was taken
+                }
+                try {
+                    queue.put(b);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
         }
 
         /**
-         * Sends an event to one of the subscribed micro-services in a round-robin fashion.
-         * Using the round robin method
+         * Sends an event to one of the subscribed micro-services, in a round-robin fashion
+         * unless another {@link RoutingStrategy} was set for the event type.
+         * The subscriber is picked from the immutable routing table of the event type
+         * without taking any lock, so concurrent senders never serialize on each other.
          * @PARAM e The event to send.
          * @PRE e != null
          * @POST The event is added to a subscribed micro-service's queue if any exists.
          */
         @Override
         public <T> Future<T> sendEvent(Event<T> e) {
-            Queue <MicroService> subscribers = eventSubscribers.get(e.getClass());
-            if (subscribers == null || subscribers.isEmpty()) {
-                return null;
+            Envelope<T> envelope = new Envelope<>(e);
+            return deliver(envelope) ? envelope.getFuture() : null;
+        }
+
+        /**
+         * Sends a batch of events, see {@link MessageBus#sendEvents}.
+         *
+         * @PARAM events The events to send.
+         * @PRE events != null
+         * @POST Every event with a subscriber is added to the queue of one of them.
+         */
+        @Override
+        public <T> FutureGroup<T> sendEvents(List<? extends Event<T>> events) {
+            FutureGroup<T> group = new FutureGroup<>(events.size());
+            List<Envelope<T>> envelopes = new ArrayList<>(events.size());
+            for (int i = 0; i < events.size(); i++) {
+                envelopes.add(new Envelope<>(events.get(i), group, i));
             }
-            MicroService selectedService;
-            synchronized(subscribers){
-                selectedService = subscribers.poll(); 
-                if (selectedService != null) {
-                    subscribers.add(selectedService); 
-                }
+            for (Envelope<?> envelope : deliverAll(envelopes)) {
+                group.markUnrouted(envelope.getIndex());
             }
-            if (selectedService == null || !microServiceQueues.containsKey(selectedService)) {
-                return null; // No valid service to handle the event
+            return group;
+        }
+
+        /**
+         * Holds an event until its due tick is broadcast, see {@link MessageBus#sendEventAt}.
+         *
+         * @PARAM sender The micro-service holding the event.
+         * @PARAM e The event to send.
+         * @PARAM dueTick The tick from which on the event is sent.
+         * @PARAM onRelease Run by the sender right before the event is sent, may be null.
+         * @PRE sender != null && e != null
+         * @POST The event was sent if it is due, and is held otherwise.
+         */
+        @Override
+        public <T> Future<T> sendEventAt(MicroService sender, Event<T> e, int dueTick, Runnable onRelease) {
+            HeldEvent<T> held = new HeldEvent<>(sender, new Envelope<>(e), onRelease);
+            synchronized (heldEvents) {
+                if (dueTick > heldEvents.getTime()) {
+                    heldEvents.schedule(dueTick, sender, held);
+                    return held.envelope.getFuture();
+                }
             }
-            Future<T> future = new Future<>();
-            eventFutures.putIfAbsent(e, future);
-            try {
-                microServiceQueues.get(selectedService).put(e);
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
+            release(held);
+            return held.envelope.getFuture();
+        }
+
+        @Override
+        public int getHeldEvents(MicroService sender) {
+            Mailbox mailbox = microServiceQueues.get(sender);
+            synchronized (heldEvents) { // an event moves from the wheel to the mailbox under this lock
+                return heldEvents.size(sender) + (mailbox == null ? 0 : mailbox.getUnsentReleases());
             }
+        }
 
-            return future;
+        @Override
+        public int getNextHeldTick() {
+            synchronized (heldEvents) {
+                return (int) Math.min(heldEvents.nextDue(), Integer.MAX_VALUE);
+            }
         }
 
         /**
          * Unregisters a micro-service and removes all its subscriptions.
+         * The futures of events still queued for it, or received but not completed,
+         * are dropped together with its mailbox and will never be resolved.
          *
          * @PARAM m The micro-service to unregister.
          * @PRE m != null && microServiceQueues.containsKey(m)
@@ -166,19 +278,25 @@ import java.util.concurrent.*;
          */
         @Override
         public void unregister(MicroService m) {
-            if (microServiceQueues.containsKey(m)){
-                microServiceQueues.remove(m);
-                for (Queue <MicroService> subscribers : eventSubscribers.values()) {
-                    synchronized(subscribers){ 
-                        subscribers.remove(m);
+            synchronized (heldEvents) {
+                heldEvents.cancel(m);
+            }
+            Mailbox mailbox = microServiceQueues.remove(m);
+            if (mailbox != null){
+                for (Shard shard : shards) {
+                    for (Class<? extends Event<?>> type : shard.eventSubscribers.keySet()) {
+                        shard.eventSubscribers.computeIfPresent(type, (key, table) -> table.without(m));
                     }
-                }
-                for (List<MicroService> subscribers : broadcastSubscribers.values()) {
-                    synchronized(subscribers){ 
-                        subscribers.remove(m);
+                    for (Class<? extends Broadcast> type : shard.broadcastSubscribers.keySet()) {
+                        shard.broadcastSubscribers.computeIfPresent(type, (key, subscribers) -> without(subscribers, m));
                     }
                 }
-                System.out.println("Unregistered MicroService: " + m.getName());
+                outstandingFutures.add(-mailbox.discardEnvelopes());
+                Log.info("Unregistered MicroService: {}", m.getName());
+                if (mailbox.getDroppedMessages() > 0 || mailbox.getBlockedNanos() > 0) {
+                    Log.warn("Mailbox of {} dropped {} messages, senders blocked for {} ms", m.getName(),
+                            mailbox.getDroppedMessages(), mailbox.getBlockedNanos() / 1_000_000);
+                }
             }
         }
 
@@ -188,14 +306,82 @@ import java.util.concurrent.*;
          * @PARAM m The micro-service requesting a message.
          * @PRE m != null && microServiceQueues.containsKey(m)
          * @POST Returns the next available message or blocks until one is available.
+         *       An event is returned out of its envelope, which stays in flight until completed.
          */
         @Override
         public Message awaitMessage(MicroService m) throws InterruptedException {
-            BlockingQueue<Message> queue = microServiceQueues.get(m);
+            Mailbox queue = microServiceQueues.get(m);
+            if (queue == null){
+                throw new IllegalStateException("MicroService " + m.getName() + " is not registered.");
+            }
+            return queue.open(queue.take());
+        }
+
+        /**
+         * Retrieves up to maxMessages messages for a micro-service from its queue,
+         * paying for a single wake-up when a burst of messages is waiting.
+         *
+         * @PARAM m The micro-service requesting messages.
+         * @PRE m != null && microServiceQueues.containsKey(m) && maxMessages > 0
+         * @POST Appends at least one message to batch, blocking until one is available.
+         */
+        @Override
+        public int awaitMessages(MicroService m, List<Message> batch, int maxMessages) throws InterruptedException {
+            Mailbox queue = microServiceQueues.get(m);
             if (queue == null){
                 throw new IllegalStateException("MicroService " + m.getName() + " is not registered.");
             }
-            return queue.take(); 
+            // each event goes in flight as it is taken, where complete(Event, T) can find it
+            batch.add(queue.open(queue.take()));
+            int taken = 1;
+            Message message;
+            while (taken < maxMessages && (message = queue.poll()) != null) {
+                batch.add(queue.open(message));
+                taken++;
+            }
+            return taken;
+        }
+
+        /**
+         * Turns on quiescence detection for the micro-services registered from now on:
+         * their mailboxes count every message until its callback returns, so that
+         * {@link #awaitQuiescence(MicroService, int, long, TimeUnit)} can tell when the system is idle.
+         * Costs two atomic updates per message, so it is off unless a clock needs it.
+         *
+         * @PRE no micro-service is registered yet.
+         */
+        public void enableQuiescenceDetection() {
+            if (quiescence == null) {
+                quiescence = new Quiescence();
+            }
+        }
+
+        public boolean isQuiescenceDetectionEnabled() {
+            return quiescence != null;
+        }
+
+        /**
+         * Waits until every mailbox is empty and every callback has returned, apart
+         * from the mailbox of {@code m} and the {@code own} messages it is handling;
+         * those cannot make progress while it waits.
+         *
+         * @PRE enableQuiescenceDetection() was called before the micro-services registered.
+         * @return Whether the system became quiescent before the timeout.
+         */
+        public boolean awaitQuiescence(MicroService m, int own, long timeout, TimeUnit unit) {
+            Quiescence current = quiescence;
+            if (current == null) {
+                throw new IllegalStateException("Quiescence detection is not enabled");
+            }
+            return current.await(microServiceQueues.get(m), own, timeout, unit);
+        }
+
+        /**
+         * Returns the number of futures handed out by sendEvent that are neither
+         * resolved nor dropped with the mailbox of an unregistered micro-service.
+         */
+        public long getOutstandingFutures() {
+            return outstandingFutures.sum();
         }
 
         
@@ -212,30 +398,30 @@ import java.util.concurrent.*;
 
         // פונקציה 3: בודקת אם המיקרו-שירות מנוי לאירוע מסוג Broadcast
          public boolean isSubscribedToBroad(Class<? extends Broadcast> type, MicroService listener) {
-            List<MicroService> subscribers = broadcastSubscribers.get(type);
-            return subscribers != null && subscribers.contains(listener);
+            MicroService[] subscribers = shardOf(type).broadcastSubscribers.get(type);
+            return subscribers != null && indexOf(subscribers, listener) >= 0;
         }
 
         // פונקציה 4: מחזירה את מספר המנויים לאירוע מסוג Broadcast
         public int getNumberOfSubscribersToBroad(Class<? extends Broadcast> type) {
-            List<MicroService> subscribers = broadcastSubscribers.get(type);
+            MicroService[] subscribers = shardOf(type).broadcastSubscribers.get(type);
             if (subscribers == null) {
                 return 0;
             } else {
-                return subscribers.size();
+                return subscribers.length;
             }
         }
 
         // פונקציה 5: בודקת אם המיקרו-שירות מנוי לאירוע מסוג Event
         public boolean isSubscribedToEvent(Class<? extends Event<?>> type, MicroService listener) {
-            Queue<MicroService> subscribers = eventSubscribers.get(type);
+            RoutingTable subscribers = shardOf(type).eventSubscribers.get(type);
             return subscribers != null && subscribers.contains(listener);
         }
         
         
         // פונקציה 6: מחזירה את מספר המנויים לאירוע מסוג Event
         public int getNumberOfSubscribersToEvent(Class<? extends Event<?>> type) {
-            Queue<MicroService> subscribers = eventSubscribers.get(type); // Corrected to eventSubscribers
+            RoutingTable subscribers = shardOf(type).eventSubscribers.get(type);
             if (subscribers == null) {
                 return 0;
             } else {
@@ -244,7 +430,7 @@ import java.util.concurrent.*;
         }
         //פונקציה 7
         public int getQueueSize(MicroService m) {
-            BlockingQueue<Message> queue = microServiceQueues.get(m);
+            Mailbox queue = microServiceQueues.get(m);
             if (queue == null) {
                 return 0;
             } else {
@@ -252,9 +438,416 @@ import java.util.concurrent.*;
             }
         }
 
+        // Returns the mailbox of a registered micro-service (with its drop and blocking counters), or null
+        public Mailbox getMailbox(MicroService m) {
+            return microServiceQueues.get(m);
+        }
+
+        /**
+         * Sets the mailbox used by micro-services named {@code serviceName} from their next registration on.
+         *
+         * @PARAM serviceName   The name of the micro-service.
+         * @PARAM capacity      The maximal number of queued messages.
+         * @PARAM policy        What to do with messages that arrive while the mailbox is full.
+         * @PARAM coalescedType The message type superseded under {@link OverflowPolicy#COALESCE}, may be null.
+         * @PRE capacity > 0 && policy != null
+         */
+        public void configureMailbox(String serviceName, int capacity, OverflowPolicy policy, Class<? extends Message> coalescedType) {
+            mailboxSpecs.put(serviceName, new MailboxSpec(capacity, policy, coalescedType));
+        }
+
+        /**
+         * Sets the mailbox used by micro-services that have no settings of their own.
+         *
+         * @PRE capacity > 0 && policy != null
+         */
+        public void configureDefaultMailbox(int capacity, OverflowPolicy policy, Class<? extends Message> coalescedType) {
+            defaultMailboxSpec = new MailboxSpec(capacity, policy, coalescedType);
+        }
+
+        // Returns the subscribers of an event type in the order they will be selected from now on
         public Queue<MicroService> getEventSubscribers(Class<? extends Event<?>> type) {
-            return eventSubscribers.get(type);
+            RoutingTable subscribers = shardOf(type).eventSubscribers.get(type);
+            if (subscribers == null) {
+                return null;
+            }
+            return new ArrayDeque<>(Arrays.asList(subscribers.upcoming()));
+        }
+
+        // Adds an event to the mailbox of a subscriber picked by the routing table of its type
+        private boolean deliver(Envelope<?> envelope) {
+            Event<?> e = envelope.getEvent();
+            Shard shard = shardOf(e.getClass());
+            shard.eventsSent.increment();
+            RoutingTable subscribers = shard.eventSubscribers.get(e.getClass());
+            if (subscribers == null) {
+                return false;
+            }
+            MicroService selectedService = subscribers.select(e, microServiceQueues);
+            Mailbox mailbox = selectedService == null ? null : microServiceQueues.get(selectedService);
+            if (mailbox == null) {
+                return false; // No valid service to handle the event
+            }
+            outstandingFutures.increment();
+            try {
+                mailbox.putEvent(envelope);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+
+        /*
+         * Adds a batch of events to the mailboxes of subscribers. Each run of events of
+         * one type is routed with one routing-table lookup, and all envelopes bound for
+         * one mailbox are added with one bulk operation. Returns the envelopes that found
+         * no subscriber.
+         */
+        private List<Envelope<?>> deliverAll(List<? extends Envelope<?>> envelopes) {
+            int count = envelopes.size();
+            MicroService[] targets = new MicroService[count];
+            for (int start = 0, end; start < count; start = end) {
+                Class<? extends Message> type = envelopes.get(start).getEvent().getClass();
+                end = start + 1;
+                while (end < count && envelopes.get(end).getEvent().getClass() == type) {
+                    end++;
+                }
+                Shard shard = shardOf(type);
+                shard.eventsSent.add(end - start);
+                RoutingTable subscribers = shard.eventSubscribers.get(type);
+                if (subscribers != null) {
+                    subscribers.selectAll(envelopes, start, end, microServiceQueues, targets);
+                }
+            }
+            List<Envelope<?>> unrouted = Collections.emptyList();
+            Map<MicroService, List<Envelope<?>>> batches = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                if (targets[i] == null) {
+                    if (unrouted.isEmpty()) {
+                        unrouted = new ArrayList<>();
+                    }
+                    unrouted.add(envelopes.get(i));
+                } else {
+                    batches.computeIfAbsent(targets[i], target -> new ArrayList<>()).add(envelopes.get(i));
+                }
+            }
+            for (Map.Entry<MicroService, List<Envelope<?>>> batch : batches.entrySet()) {
+                Mailbox mailbox = microServiceQueues.get(batch.getKey());
+                if (mailbox == null) {
+                    if (unrouted.isEmpty()) {
+                        unrouted = new ArrayList<>();
+                    }
+                    unrouted.addAll(batch.getValue()); // unregistered after it was selected
+                    continue;
+                }
+                outstandingFutures.add(batch.getValue().size());
+                try {
+                    mailbox.putEvents(batch.getValue());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return unrouted;
+        }
+
+        /*
+         * Advances the clock and hands every held event due by then, earliest deadline
+         * first, to the mailbox of its sender, ahead of the tick itself. The sender runs
+         * the release action and sends the event on its own thread, see send(HeldEvent).
+         */
+        private void releaseHeldEvents(int time) {
+            List<HeldEvent<?>> due;
+            List<Mailbox> mailboxes;
+            synchronized (heldEvents) {
+                due = heldEvents.advance(time);
+                mailboxes = new ArrayList<>(due.size());
+                for (HeldEvent<?> held : due) {
+                    Mailbox mailbox = microServiceQueues.get(held.sender); // null once unregistered: discarded
+                    if (mailbox != null) {
+                        mailbox.releasing();
+                    }
+                    mailboxes.add(mailbox);
+                }
+            }
+            for (int i = 0; i < due.size(); i++) {
+                if (mailboxes.get(i) == null) {
+                    continue;
+                }
+                try {
+                    mailboxes.get(i).put(due.get(i));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Runs the release action of a held event and sends it. Called by its sender
+         * once it took the event from its mailbox, or at once if it was already due.
+         */
+        void release(HeldEvent<?> held) {
+            if (held.onRelease != null) {
+                held.onRelease.run();
+            }
+            deliver(held.envelope);
+        }
+
+        /**
+         * @return The number of independent shards the subscription registry is split into.
+         */
+        public int getShardCount() {
+            return shards.length;
+        }
+
+        /**
+         * @return The shard that keeps the subscribers of the given message type.
+         */
+        public int getShardOf(Class<? extends Message> type) {
+            return MessageTypes.idOf(type) & (shards.length - 1);
+        }
+
+        /**
+         * @return The number of events and broadcasts sent through the given shard so far.
+         */
+        public long getShardTraffic(int shard) {
+            return shards[shard].eventsSent.sum() + shards[shard].broadcastsSent.sum();
+        }
+
+        private Shard shardOf(Class<? extends Message> type) {
+            return shards[getShardOf(type)];
+        }
+
+        private static Shard[] newShards(int count) {
+            if (count <= 0 || Integer.bitCount(count) != 1) {
+                throw new IllegalArgumentException("The number of shards must be a power of two, got: " + count);
+            }
+            Shard[] shards = new Shard[count];
+            for (int i = 0; i < count; i++) {
+                shards[i] = new Shard();
+            }
+            return shards;
+        }
+
+        private <T> boolean resolve(Envelope<T> envelope, T result) {
+            if (envelope == null) {
+                return false;
+            }
+            envelope.resolve(result);
+            outstandingFutures.decrement();
+            return true;
+        }
+
+        /*
+         * The subscriptions and statistics of the message types whose dense type id maps
+         * to this shard. Unrelated traffic (ticks, poses, tracked objects) lands in
+         * different shards, so it never shares a map or a counter. The mailboxes and the
+         * held events are not sharded: a micro-service may subscribe to types of any shard.
+         */
+        private static final class Shard {
+            private final Map<Class<? extends Event<?>>, RoutingTable> eventSubscribers = new ConcurrentHashMap<>();
+            private final Map<Class<? extends Broadcast>, MicroService[]> broadcastSubscribers = new ConcurrentHashMap<>();
+            private final Map<Class<? extends Event<?>>, RoutingStrategy> routingStrategies = new ConcurrentHashMap<>();
+            private final LongAdder eventsSent = new LongAdder();
+            private final LongAdder broadcastsSent = new LongAdder();
+        }
+
+        private static final class MailboxSpec {
+            private final int capacity;
+            private final OverflowPolicy policy;
+            private final Class<? extends Message> coalescedType;
+
+            private MailboxSpec(int capacity, OverflowPolicy policy, Class<? extends Message> coalescedType) {
+                if (capacity <= 0 || policy == null) {
+                    throw new IllegalArgumentException("Invalid mailbox settings: capacity " + capacity + ", policy " + policy);
+                }
+                this.capacity = capacity;
+                this.policy = policy;
+                this.coalescedType = coalescedType;
+            }
+
+            private Mailbox create() {
+                return Mailbox.create(capacity, policy, coalescedType);
+            }
+        }
+
+        private static int indexOf(MicroService[] subscribers, MicroService m) {
+            for (int i = 0; i < subscribers.length; i++) {
+                if (subscribers[i] == m) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Returns a snapshot without m, or null (dropping the mapping) when m was the last subscriber
+        private static MicroService[] without(MicroService[] subscribers, MicroService m) {
+            int index = indexOf(subscribers, m);
+            if (index < 0) {
+                return subscribers;
+            }
+            if (subscribers.length == 1) {
+                return null;
+            }
+            MicroService[] snapshot = new MicroService[subscribers.length - 1];
+            System.arraycopy(subscribers, 0, snapshot, 0, index);
+            System.arraycopy(subscribers, index + 1, snapshot, index, snapshot.length - index);
+            return snapshot;
+        }
+
+        /**
+         * Immutable round-robin routing table of a single event type.
+         * A new table is published on every subscription change, while senders only
+         * read the current table and advance its atomic cursor.
+         * The subscribers are kept in the order in which they will be selected, so a
+         * rebuilt table keeps the same routing order the old rotating queue had:
+         * a new subscriber is served last and an unregistered one simply drops out.
+         */
+        private static final class RoutingTable {
+            private static final int VIRTUAL_NODES = 64;
+
+            private final MicroService[] ring;
+            private final RoutingStrategy strategy;
+            private final AtomicInteger cursor = new AtomicInteger(0);
+            // the hash ring of CONSISTENT_HASH: sorted node hashes and the subscriber owning each node
+            private final int[] nodeHashes;
+            private final MicroService[] nodeOwners;
+
+            private RoutingTable(MicroService[] ring, RoutingStrategy strategy) {
+                this.ring = ring;
+                this.strategy = strategy;
+                if (strategy == RoutingStrategy.CONSISTENT_HASH) {
+                    long[] nodes = new long[ring.length * VIRTUAL_NODES];
+                    for (int i = 0; i < ring.length; i++) {
+                        // node positions depend on the service name only, so key ownership is the same in every run
+                        int nameHash = ring[i].getName().hashCode();
+                        for (int v = 0; v < VIRTUAL_NODES; v++) {
+                            nodes[i * VIRTUAL_NODES + v] = ((long) mix(nameHash * 31 + v) << 32) | i;
+                        }
+                    }
+                    Arrays.sort(nodes);
+                    nodeHashes = new int[nodes.length];
+                    nodeOwners = new MicroService[nodes.length];
+                    for (int n = 0; n < nodes.length; n++) {
+                        nodeHashes[n] = (int) (nodes[n] >> 32);
+                        nodeOwners[n] = ring[(int) nodes[n]];
+                    }
+                } else {
+                    nodeHashes = null;
+                    nodeOwners = null;
+                }
+            }
+
+            private MicroService select(Event<?> e, Map<MicroService, Mailbox> mailboxes) {
+                if (strategy == RoutingStrategy.ROUND_ROBIN) {
+                    return next();
+                }
+                if (strategy == RoutingStrategy.CONSISTENT_HASH) {
+                    return e instanceof KeyedEvent ? owner(((KeyedEvent<?>) e).getRoutingKey(), mailboxes) : next();
+                }
+                // scan from the round-robin position, so that equally loaded subscribers still take turns
+                int start = Math.floorMod(cursor.getAndIncrement(), ring.length);
+                MicroService selected = null;
+                int lowestLoad = Integer.MAX_VALUE;
+                for (int i = 0; i < ring.length && lowestLoad > 0; i++) {
+                    MicroService candidate = ring[(start + i) % ring.length];
+                    Mailbox mailbox = mailboxes.get(candidate);
+                    if (mailbox == null) {
+                        continue;
+                    }
+                    int load = strategy == RoutingStrategy.SHORTEST_QUEUE ? mailbox.size() : mailbox.getUnfinishedEvents();
+                    if (load < lowestLoad) {
+                        selected = candidate;
+                        lowestLoad = load;
+                    }
+                }
+                return selected;
+            }
+
+            /*
+             * Selects the subscribers of envelopes[start, end), all events of this type.
+             * Round-robin reserves the whole run of turns with a single cursor update.
+             */
+            private void selectAll(List<? extends Envelope<?>> envelopes, int start, int end,
+                                   Map<MicroService, Mailbox> mailboxes, MicroService[] targets) {
+                if (strategy == RoutingStrategy.ROUND_ROBIN) {
+                    int first = cursor.getAndAdd(end - start);
+                    for (int i = start; i < end; i++) {
+                        targets[i] = ring[Math.floorMod(first + (i - start), ring.length)];
+                    }
+                    return;
+                }
+                for (int i = start; i < end; i++) {
+                    targets[i] = select(envelopes.get(i).getEvent(), mailboxes);
+                }
+            }
+
+            private MicroService owner(Object key, Map<MicroService, Mailbox> mailboxes) {
+                int index = Arrays.binarySearch(nodeHashes, mix(key.hashCode()));
+                if (index < 0) {
+                    index = -index - 1; // the first node clockwise from the key
+                }
+                // skip nodes of a subscriber that is in the middle of unregistering
+                for (int n = 0; n < nodeOwners.length; n++) {
+                    MicroService candidate = nodeOwners[(index + n) % nodeOwners.length];
+                    if (mailboxes.containsKey(candidate)) {
+                        return candidate;
+                    }
+                }
+                return null;
+            }
+
+            private static int mix(int h) {
+                // murmur3 finalizer, spreads nearby hash codes (e.g. "Wall_1", "Wall_2") over the ring
+                h ^= h >>> 16;
+                h *= 0x85ebca6b;
+                h ^= h >>> 13;
+                h *= 0xc2b2ae35;
+                return h ^ (h >>> 16);
+            }
+
+            private MicroService next() {
+                // floorMod keeps the index valid once the cursor wraps around
+                return ring[Math.floorMod(cursor.getAndIncrement(), ring.length)];
+            }
+
+            private MicroService[] upcoming() {
+                int start = Math.floorMod(cursor.get(), ring.length);
+                MicroService[] order = new MicroService[ring.length];
+                for (int i = 0; i < ring.length; i++) {
+                    order[i] = ring[(start + i) % ring.length];
+                }
+                return order;
+            }
+
+            private RoutingTable with(MicroService m) {
+                if (indexOf(ring, m) >= 0) {
+                    return this;
+                }
+                MicroService[] order = Arrays.copyOf(upcoming(), ring.length + 1);
+                order[ring.length] = m;
+                return new RoutingTable(order, strategy);
+            }
+
+            private RoutingTable without(MicroService m) {
+                if (indexOf(ring, m) < 0) {
+                    return this;
+                }
+                MicroService[] order = MessageBusImpl.without(upcoming(), m);
+                return order == null ? null : new RoutingTable(order, strategy);
+            }
+
+            private RoutingTable routedBy(RoutingStrategy newStrategy) {
+                return newStrategy == strategy ? this : new RoutingTable(upcoming(), newStrategy);
+            }
+
+            private boolean contains(MicroService m) {
+                return indexOf(ring, m) >= 0;
+            }
+
+            private int size() {
+                return ring.length;
+            }
         }
-        
 
 }
\ No newline at end of file
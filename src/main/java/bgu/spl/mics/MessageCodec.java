@@ -0,0 +1,95 @@
+package bgu.spl.mics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary encoding of the messages and event results that a
+ * {@link RingBridge} carries between processes.
+ * <p>
+ * An application implements {@link #encode(Message, ByteBuffer)} and
+ * {@link #decode(ByteBuffer)} for its own message types; results of the common types
+ * (null, {@link Boolean}, {@link Integer}, {@link String}) are encoded by default.
+ */
+public interface MessageCodec {
+
+    byte NULL = 0;
+    byte FALSE = 1;
+    byte TRUE = 2;
+    byte INTEGER = 3;
+    byte STRING = 4;
+
+    /**
+     * Writes {@code message} at the position of {@code out}.
+     *
+     * @throws IllegalArgumentException if the message type is not supported.
+     */
+    void encode(Message message, ByteBuffer out);
+
+    /**
+     * Reads a message written by {@link #encode(Message, ByteBuffer)}.
+     */
+    Message decode(ByteBuffer in);
+
+    /**
+     * Writes the result of an event at the position of {@code out}.
+     *
+     * @throws IllegalArgumentException if the result type is not supported.
+     */
+    default void encodeResult(Object result, ByteBuffer out) {
+        if (result == null) {
+            out.put(NULL);
+        } else if (result instanceof Boolean) {
+            out.put((Boolean) result ? TRUE : FALSE);
+        } else if (result instanceof Integer) {
+            out.put(INTEGER).putInt((Integer) result);
+        } else if (result instanceof String) {
+            out.put(STRING);
+            putString(out, (String) result);
+        } else {
+            throw new IllegalArgumentException("Cannot encode a result of type " + result.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads a result written by {@link #encodeResult(Object, ByteBuffer)}.
+     */
+    default Object decodeResult(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INTEGER:
+                return in.getInt();
+            case STRING:
+                return getString(in);
+            default:
+                throw new IllegalArgumentException("Unknown result tag " + tag);
+        }
+    }
+
+    /** Writes a string as its UTF-8 length and bytes; null is written as length -1. */
+    static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length).put(bytes);
+    }
+
+    /** Reads a string written by {@link #putString(ByteBuffer, String)}. */
+    static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives every {@link Message} type a small integer ID the first time it is looked up,
+ * so that per-type tables can be plain arrays indexed by that ID.
+ * IDs are dense: two threads racing on the first lookup of a type may waste one
+ * number, but a type's ID never changes once it was handed out.
+ */
+public final class MessageTypes {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final ClassValue<Integer> IDS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return NEXT_ID.getAndIncrement();
+        }
+    };
+
+    private MessageTypes() {
+    }
+
+    /**
+     * @param type A message type.
+     * @return The ID of {@code type}, assigning the next free one on first use.
+     */
+    public static int idOf(Class<? extends Message> type) {
+        return IDS.get(type);
+    }
+
+    /**
+     * @return The number of IDs handed out so far; every ID is smaller than it.
+     */
+    public static int count() {
+        return NEXT_ID.get();
+    }
+}
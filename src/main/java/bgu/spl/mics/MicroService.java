@@ -1,7 +1,9 @@
 package bgu.spl.mics;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -17,17 +19,25 @@ import java.util.concurrent.ConcurrentHashMap;
  * a message of the subscribed type was taken from the micro-service
  * message-queue (see {@link MessageBus#register(bgu.spl.mics.MicroService)}
  * method). The abstract MicroService stores this callback together with the
- * type of the message is related to.
- * 
- * Only private fields and methods may be added to this class.
+ * type of the message is related to, in a table indexed by
+ * {@link MessageTypes#idOf(Class)}. Subscriptions are only allowed in
+ * {@link #initialize()}; the table is frozen once it returns.
  * <p>
  */
 public abstract class MicroService implements Runnable {
 
+    // The most messages taken from the message-queue in one call to the message-bus
+    private static final int MAX_BATCH = 64;
+
     private boolean terminated = false;
     private final String name;
     private final MessageBus messageBus = MessageBusImpl.getInstance();
-    private final Map<Class<? extends Message>, Callback<?>> callbacks = new ConcurrentHashMap<>();
+    // The callbacks indexed by MessageTypes.idOf(type); filled in initialize() and frozen afterwards
+    private Callback<?>[] callbacks = new Callback<?>[0];
+    private boolean callbacksFrozen = false;
+    private Mailbox mailbox; // set once registered
+    private boolean handling = false; // whether a callback of this micro-service is running
+    private final CountDownLatch initialized = new CountDownLatch(1);
 
 
 
@@ -61,7 +71,7 @@ public abstract class MicroService implements Runnable {
      *                 queue.
      */
     protected final <T, E extends Event<T>> void subscribeEvent(Class<E> type, Callback<E> callback) {
-        callbacks.put(type, callback);
+        putCallback(type, callback);
         messageBus.subscribeEvent(type, this);
     }
 
@@ -86,7 +96,7 @@ public abstract class MicroService implements Runnable {
      *                 queue.
      */
     protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback) {
-        callbacks.put(type, callback);
+        putCallback(type, callback);
         messageBus.subscribeBroadcast(type, this);
     }
 
@@ -106,6 +116,78 @@ public abstract class MicroService implements Runnable {
         return messageBus.sendEvent(e);
     }
 
+    /**
+     * Sends a batch of events using the message-bus in one call, see
+     * {@link MessageBus#sendEvents(List)}.
+     * <p>
+     * @param <T>    The type of the expected result of the events
+     * @param events The events to send
+     * @return A {@link FutureGroup} with the results of the events, in their order.
+     */
+    protected final <T> FutureGroup<T> sendEvents(List<? extends Event<T>> events) {
+        return messageBus.sendEvents(events);
+    }
+
+    /**
+     * Sends the event {@code e} once the clock reaches {@code dueTick}, instead of
+     * keeping it in a delayed queue of the micro-service. The message-bus holds it
+     * until that tick is broadcast and then hands it back to this micro-service,
+     * which sends it ahead of the tick; held events are discarded when this
+     * micro-service is unregistered.
+     * <p>
+     * @param <T>       The type of the expected result of the request
+     *                  {@code e}
+     * @param e         The event to send
+     * @param dueTick   The tick from which on the event is sent
+     * @param onRelease Run on this micro-service's thread right before the event is
+     *                  sent, e.g. to update what it reports about the event; may be null.
+     * @return  		{@link Future<T>} object that may be resolved later by a different
+     *         			micro-service processing this event.
+     */
+    protected final <T> Future<T> sendEventAt(Event<T> e, int dueTick, Runnable onRelease) {
+        return messageBus.sendEventAt(this, e, dueTick, onRelease);
+    }
+
+    /**
+     * @return true if events sent by {@link #sendEventAt} are still held for a later tick.
+     */
+    protected final boolean hasHeldEvents() {
+        return messageBus.getHeldEvents(this) > 0;
+    }
+
+    /**
+     * @return The earliest tick at which an event sent by any micro-service with
+     *         {@link #sendEventAt} is due, or {@link Integer#MAX_VALUE} if none is held.
+     */
+    protected final int getNextHeldTick() {
+        return messageBus.getNextHeldTick();
+    }
+
+    /**
+     * Runs {@code callback} with the result of {@code future} once it is resolved,
+     * as a message in this micro-service's own event loop, so it runs like any other
+     * callback of the micro-service instead of on the thread that resolved the future.
+     * The message is queued like any other: a full mailbox may block or drop it.
+     * It is discarded if the micro-service has been unregistered by then.
+     * <p>
+     * @param <T>      The type of the result.
+     * @param future   The future to react to, e.g. one returned by {@link #sendEvent(Event)}.
+     * @param callback The callback to run with the result.
+     */
+    protected final <T> void onComplete(Future<T> future, Callback<T> callback) {
+        future.onComplete(result -> {
+            Mailbox mailbox = MessageBusImpl.getInstance().getMailbox(this);
+            if (mailbox == null) {
+                return;
+            }
+            try {
+                mailbox.put(new Completion<>(callback, result));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
     /**
      * A Micro-Service calls this method in order to send the broadcast message {@code b} using the message-bus
      * to all the services subscribed to it.
@@ -127,7 +209,53 @@ public abstract class MicroService implements Runnable {
      *               {@code e}.
      */
     protected final <T> void complete(Event<T> e, T result) {
-        messageBus.complete(e, result);
+        messageBus.complete(this, e, result);
+    }
+
+    /**
+     * Handles the {@link ControlMessage}s waiting in this micro-service's mailbox now,
+     * e.g. from a callback that must not go on past a crash. Stops early if one of
+     * them terminates the micro-service.
+     */
+    protected final void handleControlMessages() {
+        boolean wasHandling = handling;
+        Message control;
+        while (!terminated && (control = mailbox.pollControl()) != null) {
+            handle(control);
+        }
+        handling = wasHandling;
+    }
+
+    /**
+     * Waits at most the given time, returning early once a {@link ControlMessage}
+     * waits in this micro-service's mailbox; to be followed by
+     * {@link #handleControlMessages()}. May also return early for no reason.
+     *
+     * @return Whether a control message is waiting.
+     */
+    protected final boolean awaitControlMessage(long nanos) {
+        return mailbox.awaitControl(nanos);
+    }
+
+    /**
+     * Waits until all other micro-services are idle: every mailbox is empty and every
+     * callback has returned. The messages of this micro-service, which cannot be
+     * handled while it waits, are not waited for.
+     *
+     * @param timeout The longest time to wait.
+     * @param unit    The unit of {@code timeout}.
+     * @PRE quiescence detection was enabled before the micro-services registered.
+     * @return Whether the system became quiescent in time.
+     */
+    protected final boolean awaitQuiescence(long timeout, TimeUnit unit) {
+        return MessageBusImpl.getInstance().awaitQuiescence(this, handling ? 1 : 0, timeout, unit);
+    }
+
+    /**
+     * @return Whether quiescence detection is enabled, so that {@link #awaitQuiescence} may be called.
+     */
+    protected final boolean canAwaitQuiescence() {
+        return MessageBusImpl.getInstance().isQuiescenceDetectionEnabled();
     }
 
     /**
@@ -153,26 +281,30 @@ public abstract class MicroService implements Runnable {
     }
 
     /**
-     * The entry point of the micro-service. TODO: you must complete this code
-     * otherwise you will end up in an infinite loop.
+     * The entry point of the micro-service.
+     * Messages are handled in batches: after waiting for one, up to
+     * {@code MAX_BATCH} already queued messages are handled before waiting again.
+     * Each one is taken only when its turn comes, so a {@link ControlMessage} that
+     * arrives meanwhile is handled next, and a call to {@link #terminate()} stops
+     * the loop right after the current message with the rest still queued, where
+     * {@link MessageBus#unregister} accounts for their events.
      */
     @Override
-    @SuppressWarnings("unchecked")
     public final void run() {
-        messageBus.register(this);
-        initialize();
+        setUp();
         while (!terminated) {
             try {
-                // Wait for a message
-                Message message = messageBus.awaitMessage(this);
-                // Find and execute the appropriate callback
-                Callback<Message> callback = (Callback<Message>) callbacks.get(message.getClass());
-                callback.call(message);
+                // Wait for at least one message
+                Message message = mailbox.take();
+                handle(message);
+                for (int i = 1; i < MAX_BATCH && !terminated && (message = mailbox.poll()) != null; i++) {
+                    handle(message);
+                }
             } catch (InterruptedException e) {
                 terminate();
             }
         }
-        System.out.println(getName() + " finis loop run");
+        Log.info("{} finis loop run", getName());
         messageBus.unregister(this);
 
     }
@@ -180,4 +312,78 @@ public abstract class MicroService implements Runnable {
         return terminated;
     }
 
+    /**
+     * Registers the micro-service and runs {@link #initialize()}, after which its
+     * callbacks can no longer change. Used by {@link #run()} and by {@link ActorPool}.
+     */
+    final void setUp() {
+        try {
+            messageBus.register(this);
+            mailbox = MessageBusImpl.getInstance().getMailbox(this);
+            initialize();
+            callbacksFrozen = true;
+        } finally {
+            initialized.countDown();
+        }
+    }
+
+    /**
+     * Waits until this micro-service has registered and its {@link #initialize()}
+     * has returned, so that it receives every message sent from then on.
+     */
+    public final void awaitInitialized() throws InterruptedException {
+        initialized.await();
+    }
+
+    /**
+     * Finds and executes the callback of a message taken from the message-queue.
+     * An event is taken out of its envelope, which the mailbox holds until the
+     * callback returns, so {@link #complete} from the callback needs no lookup.
+     * A message without a callback (e.g. one subscribed to directly on the
+     * message-bus) is reported and ignored.
+     * Used by the event loop of {@link #run()} and by {@link ActorPool}.
+     */
+    @SuppressWarnings("unchecked")
+    final void handle(Message message) {
+        handling = true;
+        message = mailbox.unwrap(message);
+        try {
+            if (message instanceof Completion) {
+                ((Completion<?>) message).run();
+                return;
+            }
+            if (message instanceof HeldEvent) {
+                try {
+                    MessageBusImpl.getInstance().release((HeldEvent<?>) message);
+                } finally {
+                    mailbox.released();
+                }
+                return;
+            }
+            int id = MessageTypes.idOf(message.getClass());
+            Callback<Message> callback = id < callbacks.length ? (Callback<Message>) callbacks[id] : null;
+            if (callback == null) {
+                Log.warn("{} has no callback for {}, ignoring it", getName(), message.getClass().getSimpleName());
+                return;
+            }
+            callback.call(message);
+        } finally {
+            handling = false;
+            if (mailbox != null) {
+                mailbox.handled();
+            }
+        }
+    }
+
+    private void putCallback(Class<? extends Message> type, Callback<?> callback) {
+        if (callbacksFrozen) {
+            throw new IllegalStateException(getName() + " can only subscribe in initialize(), not to " + type.getSimpleName());
+        }
+        int id = MessageTypes.idOf(type);
+        if (id >= callbacks.length) {
+            callbacks = Arrays.copyOf(callbacks, Math.max(id + 1, MessageTypes.count()));
+        }
+        callbacks[id] = callback;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+package bgu.spl.mics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free multi-producer single-consumer {@link Mailbox}.
+ * <p>
+ * Messages are stored in a linked list of fixed-size array chunks. A sender claims
+ * a slot by incrementing the tail index and then publishes the message into it, so
+ * the only allocation on the send path is a new chunk every {@link #CHUNK_SIZE}
+ * messages. The consumer owns the head index and never contends with senders.
+ * <p>
+ * An empty mailbox makes the consumer spin for a short while and then park; a
+ * sender unparks it after publishing. A sender facing a full bounded mailbox under
+ * {@link OverflowPolicy#BLOCK} backs off with short timed parks until space frees up.
+ */
+final class MpscMailbox extends Mailbox {
+
+    private static final int CHUNK_SIZE = 256;
+    private static final int SPIN_TRIES = 128;
+    private static final long SENDER_BACKOFF_NANOS = 50_000;
+
+    private static final class Chunk {
+        private static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final long base;
+        final AtomicReferenceArray<Message> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        volatile Chunk next;
+
+        Chunk(long base) {
+            this.base = base;
+        }
+
+        /** Returns the chunk after this one, linking a new one if no sender has yet. */
+        Chunk nextOrAppend() {
+            Chunk following = next;
+            if (following == null) {
+                Chunk fresh = new Chunk(base + CHUNK_SIZE);
+                following = NEXT.compareAndSet(this, null, fresh) ? fresh : next;
+            }
+            return following;
+        }
+    }
+
+    private final boolean bounded;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private volatile long head;                       // next slot to consume, written by the consumer only
+    private volatile Chunk senderChunk;               // a chunk whose base is never past the tail
+    private volatile Chunk consumerChunk;             // written by the consumer only, read by findQueued
+    private volatile Thread waiter;                   // the consumer, while it is parked
+
+    MpscMailbox(int capacity, OverflowPolicy policy) {
+        super(capacity, policy);
+        this.bounded = capacity != Integer.MAX_VALUE;
+        Chunk first = new Chunk(0);
+        this.senderChunk = first;
+        this.consumerChunk = first;
+    }
+
+    @Override
+    void enqueue(Message message) throws InterruptedException {
+        Chunk chunk;
+        long index;
+        if (!bounded) {
+            // read the chunk before claiming, so that the claimed index is never behind it
+            chunk = senderChunk;
+            index = tail.getAndIncrement();
+        } else {
+            long blockedSince = 0;
+            while (true) {
+                chunk = senderChunk;
+                long t = tail.get();
+                if (t - head < getCapacity()) {
+                    if (tail.compareAndSet(t, t + 1)) {
+                        index = t;
+                        break;
+                    }
+                    continue;
+                }
+                if (getPolicy() == OverflowPolicy.DROP_NEWEST) {
+                    recordDrop(message);
+                    return;
+                }
+                if (blockedSince == 0) {
+                    blockedSince = System.nanoTime();
+                }
+                LockSupport.parkNanos(this, SENDER_BACKOFF_NANOS);
+                if (Thread.interrupted()) {
+                    recordBlocked(System.nanoTime() - blockedSince);
+                    throw new InterruptedException();
+                }
+            }
+            if (blockedSince != 0) {
+                recordBlocked(System.nanoTime() - blockedSince);
+            }
+        }
+        while (index >= chunk.base + CHUNK_SIZE) {
+            chunk = chunk.nextOrAppend();
+        }
+        if (senderChunk.base < chunk.base) {
+            senderChunk = chunk; // a racing sender may move it back a little, which only costs a longer walk
+        }
+        chunk.slots.lazySet((int) (index - chunk.base), message);
+        wakeConsumer();
+        signal();
+    }
+
+    @Override
+    void enqueueAll(List<? extends Message> messages) throws InterruptedException {
+        int count = messages.size();
+        Chunk chunk = senderChunk;
+        long start;
+        if (!bounded) {
+            start = tail.getAndAdd(count);
+        } else {
+            long t = tail.get();
+            if (t - head > getCapacity() - count || !tail.compareAndSet(t, t + count)) {
+                super.enqueueAll(messages); // no room for all at once, claim slot by slot
+                return;
+            }
+            start = t;
+        }
+        for (int i = 0; i < count; i++) {
+            long index = start + i;
+            while (index >= chunk.base + CHUNK_SIZE) {
+                chunk = chunk.nextOrAppend();
+            }
+            chunk.slots.lazySet((int) (index - chunk.base), messages.get(i));
+        }
+        if (senderChunk.base < chunk.base) {
+            senderChunk = chunk;
+        }
+        wakeConsumer();
+        signal();
+    }
+
+    @Override
+    void wakeConsumer() {
+        Thread parked = waiter;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+    }
+
+    @Override
+    Message takeData() throws InterruptedException {
+        int idle = 0;
+        while (true) {
+            if (hasControlMessages()) {
+                return null;
+            }
+            Message message = pollData();
+            if (message != null) {
+                return message;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (head != tail.get()) {
+                // a sender claimed the slot but has not published it yet
+                if (++idle > SPIN_TRIES) {
+                    Thread.yield();
+                } else {
+                    Thread.onSpinWait();
+                }
+                continue;
+            }
+            if (++idle <= SPIN_TRIES) {
+                Thread.onSpinWait();
+                continue;
+            }
+            waiter = Thread.currentThread();
+            // re-check after publishing the waiter, or a wake-up could be lost
+            if (head == tail.get() && !hasControlMessages()) {
+                LockSupport.park(this);
+            }
+            waiter = null;
+        }
+    }
+
+    @Override
+    int dataSize() {
+        return (int) Math.min(Integer.MAX_VALUE, tail.get() - head);
+    }
+
+    @Override
+    Message pollData() {
+        long h = head;
+        Chunk chunk = consumerChunk;
+        int offset = (int) (h - chunk.base);
+        if (offset == CHUNK_SIZE) {
+            Chunk following = chunk.next;
+            if (following == null) {
+                return null;
+            }
+            consumerChunk = chunk = following;
+            offset = 0;
+        }
+        Message message = chunk.slots.get(offset);
+        if (message == null) {
+            return null;
+        }
+        taking(message);
+        chunk.slots.lazySet(offset, null);
+        head = h + 1;
+        return message;
+    }
+
+    @Override
+    Envelope<?> findQueued(Event<?> event) {
+        // chunks the consumer has left stay linked to the newer ones, so a stale start only costs a longer walk
+        for (Chunk chunk = consumerChunk; chunk != null; chunk = chunk.next) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                Message message = chunk.slots.get(i);
+                if (message instanceof Envelope && ((Envelope<?>) message).getEvent() == event) {
+                    return (Envelope<?>) message;
+                }
+            }
+        }
+        return null;
+    }
+}
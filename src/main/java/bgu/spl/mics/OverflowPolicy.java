@@ -0,0 +1,15 @@
+package bgu.spl.mics;
+
+/**
+ * Decides what a {@link Mailbox} does when a message arrives while it is full.
+ * Possible policies:
+ * - BLOCK: The sender waits until the receiver makes room.
+ * - DROP_OLDEST: The oldest queued message is discarded to make room.
+ * - DROP_NEWEST: The arriving message is discarded.
+ * - COALESCE: The arriving message supersedes the oldest queued message of the
+ *   mailbox's coalesced type (e.g. an older tick); if there is none, the sender blocks.
+ * Dropping an {@link Event} means its {@link Future} is never resolved.
+ */
+public enum OverflowPolicy {
+    BLOCK, DROP_OLDEST, DROP_NEWEST, COALESCE
+}
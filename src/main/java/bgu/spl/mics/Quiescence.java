@@ -0,0 +1,75 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counts the messages of all mailboxes that are queued or being handled, so that a
+ * micro-service can wait until the whole system is idle.
+ * <p>
+ * A message is counted before it is added to a mailbox and uncounted after its
+ * callback returns, or when it is dropped. A callback that sends a message counts it
+ * before its own message is uncounted, so the count never reaches zero while a chain
+ * of messages is still on its way, and one counter is enough to see quiescence.
+ * <p>
+ * The messages queued for the waiting micro-service itself cannot be handled while it
+ * waits, so they are not waited for. One thread at a time may wait.
+ */
+final class Quiescence {
+
+    private final AtomicLong pending = new AtomicLong();
+    private volatile Thread waiter;
+    private volatile Mailbox waiterMailbox;
+    private volatile long own;
+
+    void added(long messages) {
+        pending.addAndGet(messages);
+    }
+
+    void removed(long messages) {
+        pending.addAndGet(-messages);
+        Thread current = waiter;
+        if (current != null && isQuiescent(waiterMailbox, own)) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    long getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Waits until no messages are pending apart from the {@code own} messages the
+     * caller is handling and those queued in its {@code mailbox}, or the timeout passes.
+     *
+     * @return Whether the system became quiescent in time.
+     */
+    boolean await(Mailbox mailbox, long own, long timeout, TimeUnit unit) {
+        if (isQuiescent(mailbox, own)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.waiterMailbox = mailbox;
+        this.own = own;
+        waiter = Thread.currentThread();
+        try {
+            while (!isQuiescent(mailbox, own)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        } finally {
+            waiter = null;
+        }
+    }
+
+    private boolean isQuiescent(Mailbox mailbox, long own) {
+        // the caller's mailbox only grows while it waits, so reading it first errs on the side of waiting
+        long queuedForCaller = mailbox == null ? 0 : mailbox.size();
+        return pending.get() - queuedForCaller <= own;
+    }
+}
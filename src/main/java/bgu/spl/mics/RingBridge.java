@@ -0,0 +1,206 @@
+package bgu.spl.mics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects the message-bus of this process to the message-bus of another process
+ * on the same host, through a pair of {@link MappedRing}s.
+ * <p>
+ * Every exported message type is subscribed to here by a forwarding micro-service,
+ * which writes the messages it receives to the outbound ring. The bridge of the
+ * other process reads them from its inbound ring and sends them on its own bus, so
+ * its subscribers handle them as if they were sent locally. When such an event is
+ * completed, its result travels back and completes the event here, which resolves
+ * the {@link Future} of the original sender. An event that has no subscriber on the
+ * other side is completed with null.
+ * <p>
+ * A type must not be exported by both bridges of a pair, or its messages would go
+ * back and forth. Messages and results are encoded by the given {@link MessageCodec}.
+ */
+public final class RingBridge {
+
+    private static final byte EVENT = 1;
+    private static final byte BROADCAST = 2;
+    private static final byte RESULT = 3;
+
+    private final String name;
+    private final MappedRing outbound;
+    private final MappedRing inbound;
+    private final MessageCodec codec;
+    private final MessageBus messageBus = MessageBusImpl.getInstance();
+    private final List<Class<? extends Event<?>>> exportedEvents = new ArrayList<>();
+    private final List<Class<? extends Broadcast>> exportedBroadcasts = new ArrayList<>();
+    private final Map<Long, Event<?>> pending = new ConcurrentHashMap<>(); // exported events, by id
+    private final ByteBuffer sendBuffer; // guarded by outbound
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+    private Forwarder forwarder;
+    private Thread sender;
+    private Thread receiver;
+    private volatile boolean closed = false;
+
+    /**
+     * @param name     The name of the bridge, used for its threads.
+     * @param outbound The ring this process writes to.
+     * @param inbound  The ring the other process writes to.
+     * @param codec    The encoding of the messages and results.
+     */
+    public RingBridge(String name, MappedRing outbound, MappedRing inbound, MessageCodec codec) {
+        this.name = name;
+        this.outbound = outbound;
+        this.inbound = inbound;
+        this.codec = codec;
+        this.sendBuffer = ByteBuffer.allocate(outbound.getMaxRecordSize());
+    }
+
+    /**
+     * Forwards the events of {@code type} to the other process. Only allowed before {@link #start()}.
+     */
+    public void exportEvent(Class<? extends Event<?>> type) {
+        checkNotStarted();
+        exportedEvents.add(type);
+    }
+
+    /**
+     * Forwards the broadcasts of {@code type} to the other process. Only allowed before {@link #start()}.
+     */
+    public void exportBroadcast(Class<? extends Broadcast> type) {
+        checkNotStarted();
+        exportedBroadcasts.add(type);
+    }
+
+    /**
+     * Starts forwarding and receiving; returns once the exported types are subscribed to.
+     */
+    public void start() throws InterruptedException {
+        checkNotStarted();
+        forwarder = new Forwarder();
+        sender = new Thread(forwarder, name + "-out");
+        sender.start();
+        receiver = new Thread(this::receive, name + "-in");
+        receiver.start();
+        subscribed.await();
+    }
+
+    /**
+     * Stops the bridge and closes its rings. Exported events still waiting for their
+     * result from the other process are completed with null; events not forwarded
+     * yet are dropped with the mailbox of the forwarder, as for any micro-service
+     * that terminates.
+     */
+    public void close() throws InterruptedException, IOException {
+        closed = true;
+        if (forwarder != null) {
+            messageBus.sendBroadcast(new Shutdown(this));
+            sender.join();
+            receiver.join();
+        }
+        outbound.close();
+        inbound.close();
+    }
+
+    private void checkNotStarted() {
+        if (forwarder != null) {
+            throw new IllegalStateException("The bridge " + name + " is already started");
+        }
+    }
+
+    private void send(byte kind, long id, Message message, Object result) {
+        synchronized (outbound) {
+            sendBuffer.clear();
+            sendBuffer.put(kind);
+            if (kind != BROADCAST) {
+                sendBuffer.putLong(id);
+            }
+            if (kind == RESULT) {
+                codec.encodeResult(result, sendBuffer);
+            } else {
+                codec.encode(message, sendBuffer);
+            }
+            sendBuffer.flip();
+            outbound.put(sendBuffer);
+        }
+    }
+
+    private void receive() {
+        ByteBuffer record = ByteBuffer.allocate(inbound.getMaxRecordSize());
+        while (!closed) {
+            if (!inbound.poll(record, 10, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            byte kind = record.get();
+            if (kind == BROADCAST) {
+                messageBus.sendBroadcast((Broadcast) codec.decode(record));
+            } else if (kind == EVENT) {
+                long id = record.getLong();
+                Future<?> future = messageBus.sendEvent((Event<?>) codec.decode(record));
+                if (future == null) {
+                    send(RESULT, id, null, null);
+                } else {
+                    future.onComplete(result -> send(RESULT, id, null, result));
+                }
+            } else if (kind == RESULT) {
+                long id = record.getLong();
+                forwarder.resolve(pending.remove(id), codec.decodeResult(record));
+            } else {
+                Log.warn("{} received a record of unknown kind {}, ignoring it", name, kind);
+            }
+        }
+    }
+
+    // Ends the forwarder of one bridge; a control message, so a backlog does not hold it up
+    private static final class Shutdown implements Broadcast, ControlMessage {
+        private final RingBridge bridge;
+
+        private Shutdown(RingBridge bridge) {
+            this.bridge = bridge;
+        }
+    }
+
+    private final class Forwarder extends MicroService {
+        private long nextId = 0;
+
+        private Forwarder() {
+            super(name);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void initialize() {
+            Callback<Event<Object>> forwardEvent = event -> {
+                long id = nextId++;
+                pending.put(id, event);
+                send(EVENT, id, event, null);
+            };
+            for (Class<? extends Event<?>> type : exportedEvents) {
+                subscribeEvent((Class<Event<Object>>) (Class<?>) type, forwardEvent);
+            }
+            Callback<Broadcast> forwardBroadcast = broadcast -> send(BROADCAST, 0, broadcast, null);
+            for (Class<? extends Broadcast> type : exportedBroadcasts) {
+                subscribeBroadcast((Class<Broadcast>) (Class<?>) type, forwardBroadcast);
+            }
+            subscribeBroadcast(Shutdown.class, shutdown -> {
+                if (shutdown.bridge == RingBridge.this) {
+                    for (Long id : pending.keySet()) { // no result will arrive once the receiver stops
+                        resolve(pending.remove(id), null);
+                    }
+                    terminate();
+                }
+            });
+            subscribed.countDown();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void resolve(Event<?> event, Object result) {
+            if (event != null) {
+                complete((Event<Object>) event, result);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package bgu.spl.mics;
+
+/**
+ * Decides which subscriber of an {@link Event} type receives the next event of that type.
+ * Possible strategies:
+ * - ROUND_ROBIN: Subscribers take turns, regardless of how busy they are.
+ * - SHORTEST_QUEUE: The subscriber with the fewest messages waiting in its mailbox.
+ * - LEAST_IN_FLIGHT: The subscriber with the fewest unfinished events, counting both
+ *   the events waiting in its mailbox and those it received but has not completed yet.
+ * - CONSISTENT_HASH: The subscriber that owns the routing key of a {@link KeyedEvent} on a
+ *   hash ring. When a subscriber leaves, only the keys it owned move to other subscribers.
+ *   Events without a routing key are sent round-robin.
+ * Ties are broken in round-robin order.
+ */
+public enum RoutingStrategy {
+    ROUND_ROBIN, SHORTEST_QUEUE, LEAST_IN_FLIGHT, CONSISTENT_HASH
+}
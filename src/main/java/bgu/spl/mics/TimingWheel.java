@@ -0,0 +1,306 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hierarchical timing wheel of items that fall due at a tick, driven by the tick
+ * stream: {@link #advance(long)} moves it to the current tick and returns what fell due.
+ * <p>
+ * Each of the {@link #LEVELS} levels has {@link #SLOTS} slots, and a slot of level
+ * {@code L} spans {@code SLOTS^L} ticks. An item is placed on the lowest level whose
+ * range still contains its due tick, so scheduling costs O(1). When the clock enters
+ * the span of a higher slot its items are moved one or more levels down, which
+ * happens at most {@link #LEVELS} times per item, so expiry is amortised O(1) and no
+ * ordering work is repeated per tick however many items are pending.
+ * <p>
+ * Every item has an owner, and all items of an owner can be cancelled at once in
+ * O(1), e.g. when a micro-service terminates: cancelled items are only marked, and
+ * dropped when the clock reaches their slot. Items due on the same tick are
+ * returned in the order they were scheduled.
+ * <p>
+ * Not thread-safe: callers synchronize.
+ *
+ * @param <E> The type of the scheduled items.
+ */
+public final class TimingWheel<E> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6; // 36 bits of ticks, more than any int tick
+
+    private static final class Timer<E> {
+        final long due;
+        final long sequence;
+        final Owner owner;
+        final E item;
+        Timer<E> next;
+
+        Timer(long due, long sequence, Owner owner, E item) {
+            this.due = due;
+            this.sequence = sequence;
+            this.owner = owner;
+            this.item = item;
+        }
+    }
+
+    // Shared by the timers of one owner, so that they can be cancelled without a scan
+    private static final class Owner {
+        final Object key;
+        int size;
+        boolean cancelled;
+
+        Owner(Object key) {
+            this.key = key;
+        }
+    }
+
+    private final Timer<E>[][] heads;
+    private final Timer<E>[][] tails;
+    private final long[] occupied = new long[LEVELS]; // a bit per non-empty slot
+    private final Map<Object, Owner> owners = new HashMap<>();
+    private long now;
+    private long sequence;
+    private int size; // not counting cancelled timers
+
+    /**
+     * @param now The current tick; items due by then are never held.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long now) {
+        this.heads = new Timer[LEVELS][SLOTS];
+        this.tails = new Timer[LEVELS][SLOTS];
+        this.now = now;
+    }
+
+    /**
+     * @return The current tick of the wheel.
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * @return The number of items that are not due yet.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param owner An owner of scheduled items.
+     * @return The number of items of {@code owner} that are not due yet.
+     */
+    public int size(Object owner) {
+        Owner state = owners.get(owner);
+        return state == null ? 0 : state.size;
+    }
+
+    /**
+     * @return The earliest tick at which an item falls due, or {@link Long#MAX_VALUE}
+     * if none is held.
+     */
+    public long nextDue() {
+        // an item sits on a higher level only while it is due after all items of the lower
+        // ones, and on one level a later slot only holds later items: the first slot after
+        // the current one with an item that is not cancelled holds the earliest
+        for (int level = 0; level < LEVELS; level++) {
+            int current = slotOf(now, level);
+            for (long slots = Long.rotateRight(occupied[level], current); slots != 0; slots &= slots - 1) {
+                long earliest = earliestIn(level, (current + Long.numberOfTrailingZeros(slots)) & (SLOTS - 1));
+                if (earliest != Long.MAX_VALUE) {
+                    return earliest;
+                }
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Holds {@code item} until tick {@code due}.
+     *
+     * @PARAM due   The tick at which the item falls due.
+     * @PARAM owner The owner the item is cancelled with, not null.
+     * @PARAM item  The item.
+     * @PRE due > getTime()
+     * @POST size() is greater by one.
+     */
+    public void schedule(long due, Object owner, E item) {
+        if (due <= now) {
+            throw new IllegalArgumentException("Tick " + due + " is not after the current tick " + now);
+        }
+        Owner state = owners.computeIfAbsent(owner, Owner::new);
+        place(new Timer<>(due, sequence++, state, item));
+        state.size++;
+        size++;
+    }
+
+    /**
+     * Discards every item of {@code owner} that is not due yet.
+     *
+     * @return The number of discarded items.
+     */
+    public int cancel(Object owner) {
+        Owner state = owners.remove(owner);
+        if (state == null) {
+            return 0;
+        }
+        state.cancelled = true;
+        size -= state.size;
+        return state.size;
+    }
+
+    /**
+     * Moves the wheel to tick {@code time} and removes the items due by then.
+     * A tick before the current one restarts the wheel from that tick; items held
+     * for after it stay held.
+     *
+     * @return The due items, earliest tick first, in scheduling order within a tick.
+     */
+    public List<E> advance(long time) {
+        List<Timer<E>> due = new ArrayList<>();
+        if (time < now) {
+            rebase(time, due);
+        }
+        while (now < time) {
+            if (size == due.size()) { // nothing is held, so no slot needs visiting
+                clearSlots(); // of cancelled timers
+                now = time;
+                break;
+            }
+            now++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, slotOf(now, level));
+                }
+            }
+            int before = due.size();
+            drain(0, slotOf(now, 0), due);
+            sortBySequence(due, before);
+        }
+        List<E> items = new ArrayList<>(due.size());
+        for (Timer<E> timer : due) {
+            if (--timer.owner.size == 0) {
+                owners.remove(timer.owner.key);
+            }
+            items.add(timer.item);
+        }
+        size -= due.size();
+        return items;
+    }
+
+    private static int slotOf(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+    }
+
+    // The lowest level whose current span also contains the due tick
+    private int levelOf(long due) {
+        long differing = due ^ now;
+        int level = 0;
+        while (level < LEVELS - 1 && (differing >>> (SLOT_BITS * (level + 1))) != 0) {
+            level++;
+        }
+        return level;
+    }
+
+    private void place(Timer<E> timer) {
+        int level = levelOf(timer.due);
+        int slot = slotOf(timer.due, level);
+        timer.next = null;
+        Timer<E> last = tails[level][slot];
+        if (last != null) {
+            last.next = timer;
+        } else {
+            heads[level][slot] = timer;
+            occupied[level] |= 1L << slot;
+        }
+        tails[level][slot] = timer;
+    }
+
+    // Re-places the timers of a slot whose span the clock just entered, on lower levels
+    private void cascade(int level, int slot) {
+        if ((occupied[level] & (1L << slot)) == 0) {
+            return;
+        }
+        Timer<E> timer = detach(level, slot);
+        while (timer != null) {
+            Timer<E> following = timer.next;
+            if (!timer.owner.cancelled) {
+                place(timer);
+            }
+            timer = following;
+        }
+    }
+
+    // The earliest due tick of the items of a slot that are not cancelled
+    private long earliestIn(int level, int slot) {
+        long earliest = Long.MAX_VALUE;
+        for (Timer<E> timer = heads[level][slot]; timer != null; timer = timer.next) {
+            if (!timer.owner.cancelled) {
+                if (level == 0) {
+                    return timer.due; // a slot of the lowest level spans a single tick
+                }
+                earliest = Math.min(earliest, timer.due);
+            }
+        }
+        return earliest;
+    }
+
+    private void drain(int level, int slot, List<Timer<E>> into) {
+        if ((occupied[level] & (1L << slot)) == 0) {
+            return;
+        }
+        for (Timer<E> timer = detach(level, slot); timer != null; timer = timer.next) {
+            if (!timer.owner.cancelled) {
+                into.add(timer);
+            }
+        }
+    }
+
+    private void clearSlots() {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; occupied[level] != 0 && slot < SLOTS; slot++) {
+                detach(level, slot);
+            }
+        }
+    }
+
+    private Timer<E> detach(int level, int slot) {
+        Timer<E> first = heads[level][slot];
+        heads[level][slot] = null;
+        tails[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        return first;
+    }
+
+    // Timers of one tick that were cascaded from different levels may be out of order
+    private void sortBySequence(List<Timer<E>> timers, int from) {
+        for (int i = from + 1; i < timers.size(); i++) {
+            if (timers.get(i - 1).sequence > timers.get(i).sequence) {
+                timers.subList(from, timers.size()).sort((a, b) -> Long.compare(a.sequence, b.sequence));
+                return;
+            }
+        }
+    }
+
+    // Restarts the wheel from an earlier tick, e.g. when a new simulation starts
+    private void rebase(long time, List<Timer<E>> due) {
+        List<Timer<E>> held = new ArrayList<>(size);
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                drain(level, slot, held);
+            }
+        }
+        now = time;
+        held.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        for (Timer<E> timer : held) {
+            if (timer.due <= now) {
+                due.add(timer);
+            } else {
+                place(timer);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package bgu.spl.mics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21 and later) from code that is compiled for
+ * Java 17, the release of the default build. On a runtime without virtual threads
+ * {@link #isSupported()} is false and {@link #factory()} throws.
+ */
+public final class VirtualThreads {
+
+    private static final ThreadFactory FACTORY = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running JVM can create virtual threads.
+     */
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * @return A factory creating one new virtual thread per task.
+     * @throws UnsupportedOperationException if the running JVM has no virtual threads.
+     */
+    public static ThreadFactory factory() {
+        if (FACTORY == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21, running on Java "
+                    + System.getProperty("java.specification.version"));
+        }
+        return FACTORY;
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            // Thread.ofVirtual().factory(), called through the public Thread.Builder interface
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
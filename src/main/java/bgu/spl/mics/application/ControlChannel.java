@@ -0,0 +1,106 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.Log;
+import bgu.spl.mics.application.services.TimeService;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A local control channel of a running simulation: a TCP port on the loopback
+ * interface that takes one command per line and answers each with one line.
+ * <ul>
+ * <li>{@code speed <factor>} sets the real-time factor of the clock, e.g.
+ * {@code speed 0.5}, {@code speed 10x} or {@code speed unlimited};</li>
+ * <li>{@code status} reports the current tick and the requested and achieved speed.</li>
+ * </ul>
+ * Connections are served one at a time on a daemon thread, e.g. with
+ * {@code echo "speed 10x" | nc localhost <port>}.
+ */
+public final class ControlChannel implements Closeable {
+
+    private final ServerSocket server;
+    private final TimeService timeService;
+    private final Thread acceptor;
+
+    /**
+     * Opens the channel; {@link #start()} begins to serve it.
+     *
+     * @param port The port to listen on, or 0 for any free one.
+     */
+    public ControlChannel(int port, TimeService timeService) throws IOException {
+        this.server = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+        this.timeService = timeService;
+        this.acceptor = new Thread(this::serve, "control-channel");
+        this.acceptor.setDaemon(true);
+    }
+
+    /**
+     * @return The port the channel listens on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    /**
+     * Runs one command and returns the answer, as if it came over the channel.
+     */
+    public String execute(String command) {
+        String[] words = command.trim().split("\\s+");
+        try {
+            switch (words[0].toLowerCase()) {
+                case "speed":
+                    if (words.length != 2) {
+                        return "error: usage is speed <factor|unlimited>";
+                    }
+                    timeService.setSpeed(TimeService.parseSpeed(words[1]));
+                    return "ok speed " + TimeService.formatSpeed(timeService.getSpeed());
+                case "status":
+                    return "tick " + timeService.getCurrentTick()
+                            + " requested " + TimeService.formatSpeed(timeService.getSpeed())
+                            + " achieved " + TimeService.formatSpeed(timeService.getAchievedSpeed());
+                default:
+                    return "error: unknown command " + words[0];
+            }
+        } catch (IllegalArgumentException e) { // also a factor that is not a number
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket client = server.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(client.getOutputStream(), true, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        String answer = execute(line);
+                        Log.info("Control channel: {} -> {}", line.trim(), answer);
+                        out.println(answer);
+                    }
+                }
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    Log.warn("Control channel: a connection failed", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
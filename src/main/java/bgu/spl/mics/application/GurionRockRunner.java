@@ -1,17 +1,33 @@
 package bgu.spl.mics.application;
 
+import bgu.spl.mics.Histogram;
+import bgu.spl.mics.Log;
+import bgu.spl.mics.ActorPool;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.OverflowPolicy;
+import bgu.spl.mics.RoutingStrategy;
+import bgu.spl.mics.VirtualThreads;
+import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.application.objects.*;
 import bgu.spl.mics.application.services.*;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main entry point for the GurionRock Pro Max Ultra Over 9000 simulation.
@@ -32,7 +48,7 @@ public class GurionRockRunner {
      */
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.err.println("Error: Configuration file path is required as the first argument.");
+            Log.error("Error: Configuration file path is required as the first argument.");
             return;
         }
 
@@ -46,6 +62,27 @@ public class GurionRockRunner {
             Gson gson = new Gson();
             JsonObject config = gson.fromJson(reader, JsonObject.class);
 
+            // Apply the optional per-service mailbox settings before any service registers
+            if (config.has("Mailboxes")) {
+                configureMailboxes(config.getAsJsonObject("Mailboxes"));
+            }
+            // Apply the optional per-event routing strategies
+            if (config.has("Routing")) {
+                configureRouting(config.getAsJsonObject("Routing"));
+            }
+            // Past the wall clock, the clock advances as soon as the services are idle instead of every TickTime seconds.
+            // A crash stops the clock at the crash tick in every mode, without waiting for the services to settle.
+            // Which LiDAR tracks which camera frame still depends on the order the cameras send within a tick, since
+            // the workers take the detections in turns; with several cameras and workers that is not fixed in any mode.
+            TimeService.ClockMode clockMode = config.has("ClockMode")
+                    ? TimeService.ClockMode.valueOf(config.get("ClockMode").getAsString().toUpperCase())
+                    : TimeService.ClockMode.WALL_CLOCK;
+            // An unlimited replay speed also waits for each tick to settle, and it may be set at any time
+            if (clockMode != TimeService.ClockMode.WALL_CLOCK || config.has("Speed") || config.has("ControlPort")) {
+                MessageBusImpl.getInstance().enableQuiescenceDetection();
+            }
+            List<Timeline> timelines = new ArrayList<>();
+
             // Initialize Cameras
             List<CameraService> cameraServices = new ArrayList<>();
             JsonObject camerasConfig = config.getAsJsonObject("Cameras");
@@ -58,46 +95,35 @@ public class GurionRockRunner {
             // Get camera configurations
             JsonArray cameraConfigs = camerasConfig.getAsJsonArray("CamerasConfigurations");
 
-            // Parse camera data from the JSON file
-            try (FileReader cameraDataReader = new FileReader(cameraDataPath)) {
-                JsonObject cameraData = gson.fromJson(cameraDataReader, JsonObject.class);
-
-                // Create CameraService for each camera configuration
-                for (com.google.gson.JsonElement cameraConfig : cameraConfigs) {
-                    JsonObject cameraJson = cameraConfig.getAsJsonObject();
-                    int id = cameraJson.get("id").getAsInt();
-                    int frequency = cameraJson.get("frequency").getAsInt();
-                    String cameraKey = cameraJson.get("camera_key").getAsString();
-                    // Retrieve stamped detected objects for this camera
-                    JsonArray stampedObjectsJson = cameraData.getAsJsonArray(cameraKey);
-                    List<StampedDetectedObject> detectedObjectsList = new ArrayList<>();
-
-                    for (com.google.gson.JsonElement stampedObjectJson : stampedObjectsJson) {
-                        JsonObject stampedObject = stampedObjectJson.getAsJsonObject();
-                        int time = stampedObject.get("time").getAsInt();
-                        JsonArray detectedObjectsJson = stampedObject.getAsJsonArray("detectedObjects");
-
-                        List<DetectedObject> detectedObjects = new ArrayList<>();
-                        for (com.google.gson.JsonElement detectedObjectJson : detectedObjectsJson) {
-                            JsonObject detectedObject = detectedObjectJson.getAsJsonObject();
-                            String idStr = detectedObject.get("id").getAsString();
-                            String description = detectedObject.get("description").getAsString();
-                            detectedObjects.add(new DetectedObject(idStr, description));
-                        }
-                        detectedObjectsList.add(new StampedDetectedObject(time, detectedObjects));
-                    }
-                                        // Compute maxTime as the maximum time in the detectedObjectsList
-                    int maxTime = detectedObjectsList.stream()
-                    .mapToInt(StampedDetectedObject::getTime)
-                    .max()
-                    .orElse(0); // Default to 0 if the list is empty
-
-                    // Create Camera object with the computed maxTime
-
-                    // Create Camera object and corresponding CameraService
-                    Camera camera = new Camera(id, frequency, detectedObjectsList, maxTime);
-                    cameraServices.add(new CameraService(camera));
+            // Read the frames of the configured cameras in one streaming pass over the camera data file
+            List<String> cameraKeys = new ArrayList<>();
+            for (com.google.gson.JsonElement cameraConfig : cameraConfigs) {
+                cameraKeys.add(cameraConfig.getAsJsonObject().get("camera_key").getAsString());
+            }
+            Map<String, List<StampedDetectedObject>> cameraData = CameraDataLoader.load(cameraDataPath, cameraKeys);
+
+            // Create CameraService for each camera configuration
+            for (com.google.gson.JsonElement cameraConfig : cameraConfigs) {
+                JsonObject cameraJson = cameraConfig.getAsJsonObject();
+                int id = cameraJson.get("id").getAsInt();
+                int frequency = cameraJson.get("frequency").getAsInt();
+                String cameraKey = cameraJson.get("camera_key").getAsString();
+                // Retrieve stamped detected objects for this camera
+                List<StampedDetectedObject> detectedObjectsList = cameraData.get(cameraKey);
+                if (detectedObjectsList == null) {
+                    Log.warn("Camera {}: no data under the key {}", id, cameraKey);
+                    detectedObjectsList = new ArrayList<>();
                 }
+                // Compute maxTime as the maximum time in the detectedObjectsList
+                int maxTime = detectedObjectsList.stream()
+                .mapToInt(StampedDetectedObject::getTime)
+                .max()
+                .orElse(0); // Default to 0 if the list is empty
+
+                // Create Camera object and corresponding CameraService
+                Camera camera = new Camera(id, frequency, detectedObjectsList, maxTime);
+                timelines.add(camera.getTimeline());
+                cameraServices.add(new CameraService(camera));
             }
 
             // Initialize LiDARs
@@ -122,6 +148,7 @@ public class GurionRockRunner {
                 int frequency = lidarJson.getAsJsonObject().get("frequency").getAsInt();
                 int duration = config.get("Duration").getAsInt();
                 LiDarWorkerTracker lidarWorker = new LiDarWorkerTracker(id, frequency, lidarDataPath, duration);
+                timelines.add(lidarWorker.getTimeline());
                 lidarServices.add(new LiDarService(name, lidarWorker));
             }
 
@@ -143,6 +170,7 @@ public class GurionRockRunner {
 
                 // Create GPSIMU and initialize PoseService
                 GPSIMU gpsimu = new GPSIMU(poseList, maxTime);
+                timelines.add(gpsimu.getTimeline());
                 poseService = new PoseService(gpsimu);
             }
 
@@ -160,27 +188,78 @@ public class GurionRockRunner {
             fusionSlam.setActiveSensors(numActiveSensors +1);
 
             // Print debug information
-            System.out.println("Active Cameras: " + numActiveCameras);
-            System.out.println("Active Sensors: " + numActiveSensors);
+            Log.info("Active Cameras: {}", numActiveCameras);
+            Log.info("Active Sensors: {}", numActiveSensors);
 
             // Initialize simulation parameters
-            int tickTime = config.get("TickTime").getAsInt();
+            // TickTime is in seconds and may have a fraction, e.g. 0.01 for 100 ticks a second
+            long tickNanos = Math.round(config.get("TickTime").getAsDouble() * 1_000_000_000L);
             int duration = config.get("Duration").getAsInt();
-            TimeService timeService = new TimeService(tickTime, duration);
+            TimeService timeService = new TimeService(tickNanos, TimeUnit.NANOSECONDS, duration, clockMode, timelines);
+            // The real-time factor of the wall clock, e.g. 0.5, "10x" or "unlimited"; may be changed over the control channel
+            if (config.has("Speed")) {
+                timeService.setSpeed(TimeService.parseSpeed(config.get("Speed").getAsString()));
+            }
+            ControlChannel controlChannel = null;
+            if (config.has("ControlPort")) {
+                controlChannel = new ControlChannel(config.get("ControlPort").getAsInt(), timeService);
+                controlChannel.start();
+                Log.info("Control channel listening on port {}", controlChannel.getPort());
+            }
+            List<MicroService> services = new ArrayList<>();
+            services.addAll(cameraServices);
+            services.addAll(lidarServices);
+            services.add(poseService);
+            services.add(fusionSlamService);
+
+            // In pooled mode the sensors, pose and fusion services share a fixed pool of threads
+            String executionMode = config.has("ExecutionMode") ? config.get("ExecutionMode").getAsString().toUpperCase() : "THREADS";
+            if (executionMode.equals("POOLED")) {
+                int poolThreads = config.has("PoolThreads")
+                        ? config.get("PoolThreads").getAsInt()
+                        : Runtime.getRuntime().availableProcessors();
+                ActorPool actorPool = new ActorPool(poolThreads);
+                cameraServices.forEach(actorPool::start);
+                lidarServices.forEach(actorPool::start);
+                actorPool.start(poseService);
+                actorPool.start(fusionSlamService);
+
+                // TimeService waits between ticks, so it keeps a thread of its own
+                awaitInitialized(services);
+                Thread timeServiceThread = new Thread(timeService);
+                timeServiceThread.start();
+                actorPool.awaitTermination();
+                timeServiceThread.join();
+                writeTickJitter(config, configDirectory);
+                if (controlChannel != null) {
+                    controlChannel.close();
+                }
+                return;
+            }
+
+            // In virtual mode every service gets a virtual thread instead of a platform thread
+            ThreadFactory threadFactory = Thread::new;
+            if (executionMode.equals("VIRTUAL")) {
+                if (VirtualThreads.isSupported()) {
+                    threadFactory = VirtualThreads.factory();
+                } else {
+                    Log.warn("Virtual threads are not available on this JVM, using platform threads.");
+                }
+            }
 
             // Create threads for all services
             List<Thread> threads = new ArrayList<>();
             for (CameraService cameraService : cameraServices) {
-                threads.add(new Thread(cameraService));
+                threads.add(threadFactory.newThread(cameraService));
             }
             for (LiDarService lidarService : lidarServices) {
-                threads.add(new Thread(lidarService));
+                threads.add(threadFactory.newThread(lidarService));
             }
-            threads.add(new Thread(poseService));
-            threads.add(new Thread(fusionSlamService));
+            threads.add(threadFactory.newThread(poseService));
+            threads.add(threadFactory.newThread(fusionSlamService));
 
             // TimeService runs separately
-            Thread timeServiceThread = new Thread(timeService);
+            Thread timeServiceThread = threadFactory.newThread(timeService);
             threads.add(timeServiceThread);
 
             // Start all threads except TimeService
@@ -190,19 +269,105 @@ public class GurionRockRunner {
                 }
             }
 
-            // Allow other services to initialize before starting TimeService
-            Thread.sleep(100);
+            // Start the clock once the other services have subscribed, so none of them misses a tick
+            awaitInitialized(services);
             timeServiceThread.start();
 
             // Wait for all threads to complete
             for (Thread thread : threads) {
                 thread.join();
             }
+            writeTickJitter(config, configDirectory);
+            if (controlChannel != null) {
+                controlChannel.close();
+            }
 
         } catch (IOException | InterruptedException e) {
             // Handle exceptions for file reading and thread interruptions
-            e.printStackTrace();
+            Log.error("The simulation was stopped", e);
             Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes how late the wall clock sent its ticks to the optional "TickJitterFile"
+     * of the configuration file, relative to its directory: the tick count, the overruns,
+     * a few percentiles and the non-empty buckets of the histogram, all in nanoseconds.
+     */
+    private static void writeTickJitter(JsonObject config, String configDirectory) throws IOException {
+        if (!config.has("TickJitterFile")) {
+            return;
+        }
+        StatisticalFolder stats = StatisticalFolder.getInstance();
+        Histogram jitter = stats.getTickJitter();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("ticks", jitter.getCount());
+        report.put("overruns", stats.getTickOverruns());
+        report.put("p50", jitter.getPercentile(50));
+        report.put("p90", jitter.getPercentile(90));
+        report.put("p99", jitter.getPercentile(99));
+        report.put("max", jitter.getMax());
+        report.put("buckets", jitter.getBuckets());
+        String path = Paths.get(configDirectory, config.get("TickJitterFile").getAsString()).toString();
+        try (FileWriter writer = new FileWriter(path)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+        }
+    }
+
+    private static void awaitInitialized(List<MicroService> services) throws InterruptedException {
+        for (MicroService service : services) {
+            service.awaitInitialized();
+        }
+    }
+
+    /**
+     * Applies the "Mailboxes" section of the configuration file. Every key is a
+     * service name (e.g. "LiDarService1"), or "default" for all other services,
+     * mapped to an optional "capacity" and an "overflowPolicy" of BLOCK,
+     * DROP_OLDEST, DROP_NEWEST or COALESCE_TICKS.
+     *
+     * @param mailboxesConfig The "Mailboxes" section of the configuration file.
+     */
+    private static void configureMailboxes(JsonObject mailboxesConfig) {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        for (String serviceName : mailboxesConfig.keySet()) {
+            JsonObject mailboxConfig = mailboxesConfig.getAsJsonObject(serviceName);
+            int capacity = mailboxConfig.has("capacity") ? mailboxConfig.get("capacity").getAsInt() : Integer.MAX_VALUE;
+            String policyName = mailboxConfig.has("overflowPolicy")
+                    ? mailboxConfig.get("overflowPolicy").getAsString().toUpperCase()
+                    : "BLOCK";
+            OverflowPolicy policy;
+            if (policyName.equals("COALESCE_TICKS")) {
+                policy = OverflowPolicy.COALESCE;
+            } else {
+                policy = OverflowPolicy.valueOf(policyName);
+            }
+            if (serviceName.equals("default")) {
+                messageBus.configureDefaultMailbox(capacity, policy, TickBroadcast.class);
+            } else {
+                messageBus.configureMailbox(serviceName, capacity, policy, TickBroadcast.class);
+            }
+        }
+    }
+
+    /**
+     * Applies the "Routing" section of the configuration file. Every key is the
+     * simple name of an event in the messages package (e.g. "DetectObjectsEvent")
+     * mapped to ROUND_ROBIN, SHORTEST_QUEUE, LEAST_IN_FLIGHT or CONSISTENT_HASH.
+     *
+     * @param routingConfig The "Routing" section of the configuration file.
+     */
+    @SuppressWarnings("unchecked")
+    private static void configureRouting(JsonObject routingConfig) {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        for (String eventName : routingConfig.keySet()) {
+            RoutingStrategy strategy = RoutingStrategy.valueOf(routingConfig.get(eventName).getAsString().toUpperCase());
+            try {
+                Class<?> type = Class.forName("bgu.spl.mics.application.messages." + eventName);
+                messageBus.setRoutingStrategy((Class<? extends Event<?>>) type.asSubclass(Event.class), strategy);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                Log.warn("Ignoring routing for unknown event: {}", eventName);
+            }
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package bgu.spl.mics.application.messages;
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.ControlMessage;
 
-public class CrashedBroadcast implements Broadcast {
+public class CrashedBroadcast implements Broadcast, ControlMessage {
     private final String errorMessage;
     private String senderName;
 
@@ -1,8 +1,9 @@
 package bgu.spl.mics.application.messages;
-import bgu.spl.mics.Event;
+import bgu.spl.mics.KeyedEvent;
+import bgu.spl.mics.application.objects.DetectedObject;
 import bgu.spl.mics.application.objects.StampedDetectedObject;
 
-public class DetectObjectsEvent implements Event<Boolean> {
+public class DetectObjectsEvent implements KeyedEvent<Boolean> {
     private final StampedDetectedObject stampedDetectedObjects;
     private String senderName;
     private int sendTime;
@@ -23,4 +24,20 @@ public class DetectObjectsEvent implements Event<Boolean> {
     public int getSendTime(){
         return this.sendTime;
     }
+
+    /**
+     * Routes by the smallest ID among the detected objects, so that frames showing
+     * the same objects reach the same LiDAR worker; a frame without objects is
+     * routed by the camera that sent it.
+     */
+    @Override
+    public Object getRoutingKey() {
+        String key = null;
+        for (DetectedObject object : stampedDetectedObjects.getDetectedObjects()) {
+            if (key == null || object.getId().compareTo(key) < 0) {
+                key = object.getId();
+            }
+        }
+        return key != null ? key : senderName;
+    }
 } 
\ No newline at end of file
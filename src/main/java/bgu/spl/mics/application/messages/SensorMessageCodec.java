@@ -0,0 +1,135 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageCodec;
+import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.StampedDetectedObject;
+import bgu.spl.mics.application.objects.TrackedObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static bgu.spl.mics.MessageCodec.getString;
+import static bgu.spl.mics.MessageCodec.putString;
+
+/**
+ * The binary encoding of the simulation's messages, for running the sensor services
+ * in a different process than the fusion service.
+ * Every message starts with a one-byte tag; numbers are written as-is and strings as
+ * UTF-8 with their length. The DetectObjectsEvent that a TrackedObjectsEvent answers
+ * stays with the LiDAR that handled it and is not encoded.
+ */
+public class SensorMessageCodec implements MessageCodec {
+
+    private static final byte TICK = 1;
+    private static final byte TERMINATED = 2;
+    private static final byte CRASHED = 3;
+    private static final byte DETECT_OBJECTS = 4;
+    private static final byte TRACKED_OBJECTS = 5;
+    private static final byte POSE = 6;
+
+    @Override
+    public void encode(Message message, ByteBuffer out) {
+        if (message instanceof TickBroadcast) {
+            TickBroadcast tick = (TickBroadcast) message;
+            out.put(TICK).putInt(tick.getTime()).putInt(tick.getFinalTick());
+        } else if (message instanceof TerminatedBroadcast) {
+            out.put(TERMINATED);
+            putString(out, ((TerminatedBroadcast) message).getSenderId());
+        } else if (message instanceof CrashedBroadcast) {
+            CrashedBroadcast crashed = (CrashedBroadcast) message;
+            out.put(CRASHED);
+            putString(out, crashed.getErrorMessage());
+            putString(out, crashed.getSenderId());
+        } else if (message instanceof DetectObjectsEvent) {
+            DetectObjectsEvent event = (DetectObjectsEvent) message;
+            StampedDetectedObject stamped = event.getStampedDetectedObjects();
+            out.put(DETECT_OBJECTS).putInt(event.getSendTime()).putInt(stamped.getTime());
+            putString(out, event.getSenderName());
+            out.putInt(stamped.getDetectedObjects().size());
+            for (DetectedObject object : stamped.getDetectedObjects()) {
+                putString(out, object.getId());
+                putString(out, object.getDescription());
+            }
+        } else if (message instanceof TrackedObjectsEvent) {
+            TrackedObjectsEvent event = (TrackedObjectsEvent) message;
+            out.put(TRACKED_OBJECTS).putInt(event.getTime()).putInt(event.getdesignatedTime());
+            putString(out, event.getSenderName());
+            out.putInt(event.getTrackedObjects().size());
+            for (TrackedObject object : event.getTrackedObjects()) {
+                putString(out, object.getId());
+                out.putInt(object.getTime());
+                putString(out, object.getDescription());
+                out.putInt(object.getCoordinates().size());
+                for (CloudPoint point : object.getCoordinates()) {
+                    out.putDouble(point.getX()).putDouble(point.getY());
+                }
+            }
+        } else if (message instanceof PoseEvent) {
+            PoseEvent event = (PoseEvent) message;
+            Pose pose = event.getPose();
+            out.put(POSE).putInt(pose.getTime()).putFloat(pose.getX()).putFloat(pose.getY()).putFloat(pose.getYaw());
+            putString(out, event.getSenderName());
+        } else {
+            throw new IllegalArgumentException("Cannot encode a message of type " + message.getClass().getName());
+        }
+    }
+
+    @Override
+    public Message decode(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case TICK: {
+                int time = in.getInt();
+                return new TickBroadcast(time, in.getInt());
+            }
+            case TERMINATED:
+                return new TerminatedBroadcast(getString(in));
+            case CRASHED: {
+                String errorMessage = getString(in);
+                return new CrashedBroadcast(errorMessage, getString(in));
+            }
+            case DETECT_OBJECTS: {
+                int sendTime = in.getInt();
+                int time = in.getInt();
+                String senderName = getString(in);
+                List<DetectedObject> objects = new ArrayList<>();
+                for (int i = in.getInt(); i > 0; i--) {
+                    String id = getString(in);
+                    objects.add(new DetectedObject(id, getString(in)));
+                }
+                return new DetectObjectsEvent(new StampedDetectedObject(time, objects), senderName, sendTime);
+            }
+            case TRACKED_OBJECTS: {
+                int time = in.getInt();
+                int designatedTime = in.getInt();
+                String senderName = getString(in);
+                List<TrackedObject> objects = new ArrayList<>();
+                for (int i = in.getInt(); i > 0; i--) {
+                    String id = getString(in);
+                    int objectTime = in.getInt();
+                    String description = getString(in);
+                    List<CloudPoint> coordinates = new ArrayList<>();
+                    for (int j = in.getInt(); j > 0; j--) {
+                        double x = in.getDouble();
+                        coordinates.add(new CloudPoint(x, in.getDouble()));
+                    }
+                    objects.add(new TrackedObject(id, objectTime, description, coordinates));
+                }
+                return new TrackedObjectsEvent(null, time, objects, senderName, designatedTime);
+            }
+            case POSE: {
+                int time = in.getInt();
+                float x = in.getFloat();
+                float y = in.getFloat();
+                Pose pose = new Pose(time, x, y, in.getFloat());
+                return new PoseEvent(pose, getString(in));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown message tag " + tag);
+        }
+    }
+}
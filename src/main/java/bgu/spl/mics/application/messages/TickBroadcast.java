@@ -1,8 +1,8 @@
 package bgu.spl.mics.application.messages;
 
-import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.ClockTick;
 
-public class TickBroadcast implements Broadcast {
+public class TickBroadcast implements ClockTick {
     private final int time; // The current time
     private final int finalTick; // The final tick of the simulation
 
@@ -11,6 +11,7 @@ public class TickBroadcast implements Broadcast {
         this.finalTick = finalTick;//לבדוק אם צריך
     }
 
+    @Override
     public int getTime() {
         return time;
     }
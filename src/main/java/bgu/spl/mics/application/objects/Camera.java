@@ -1,19 +1,22 @@
 package bgu.spl.mics.application.objects;
 
+import bgu.spl.mics.Log;
+
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 /**
  * Represents a camera sensor on the robot.
  * Responsible for detecting objects in the environment.
+ * <p>
+ * The frames are indexed by time when they are loaded, so that looking up the frame
+ * of a tick does not scan them: in an array indexed by the time minus the first one
+ * when the times are dense, otherwise by binary search in the sorted times. Whether a
+ * frame holds an error is worked out at the same time.
  */
 public class Camera {
 
@@ -23,6 +26,12 @@ public class Camera {
     private List<StampedDetectedObject> detectedObjectsList; 
     private int maxTime;
     private String errMString;
+    private Timeline timeline; // the detection times and maxTime
+    // The frame index: frames[time - firstTime] when dense (times == null), else frames[i] is at times[i]
+    private StampedDetectedObject[] frames;
+    private int[] times;
+    private int firstTime;
+    private String[] errors; // the description of the ERROR object of each frame, or null
 
     public Camera(int id, int frequency, String filePath, String cameraKey) {
         this.id = id;
@@ -39,6 +48,7 @@ public class Camera {
         } else {
             this.maxTime = 0; 
         }
+        this.timeline = Timeline.of(detectedObjectsList, StampedDetectedObject::getTime, maxTime);
     }
     public Camera(int id, int frequency, List<StampedDetectedObject> detectedObjectsList, int maxTime) {
         this.id = id;
@@ -49,6 +59,8 @@ public class Camera {
                 : Collections.emptyList(); 
         this.maxTime = maxTime;
         this.errMString = null;
+        this.timeline = Timeline.of(this.detectedObjectsList, StampedDetectedObject::getTime, maxTime);
+        indexFrames();
     }
     
     
@@ -73,6 +85,13 @@ public class Camera {
         return detectedObjectsList;
     }
 
+    /**
+     * @return The ticks at which the camera has work: its detections, and maxTime when it shuts down.
+     */
+    public Timeline getTimeline() {
+        return timeline;
+    }
+
     /**
      * Retrieves the detected objects at a specific time, updating the camera status if errors are detected.
      *
@@ -86,45 +105,86 @@ public class Camera {
      */
     public StampedDetectedObject getDetectedObjectsAtTime(int time) {
         checkIfDone(time);
-        for (StampedDetectedObject stampedObject : detectedObjectsList) {
-            if (stampedObject.getTime() == time) {
-                for (DetectedObject obj : stampedObject.getDetectedObjects()) {
-                    if ("ERROR".equals(obj.getId())) {
-                        errMString = obj.getDescription();
-                        setStatus(STATUS.ERROR); 
-                        break; 
-                    }
-                }
-                return stampedObject;
+        int frame = frameAt(time);
+        if (frame < 0) {
+            return null;
+        }
+        if (errors[frame] != null) {
+            errMString = errors[frame];
+            setStatus(STATUS.ERROR);
+        }
+        return frames[frame];
+    }
+
+    // The index of the frame at time, or -1
+    private int frameAt(int time) {
+        if (times == null) {
+            long frame = (long) time - firstTime;
+            return frame >= 0 && frame < frames.length && frames[(int) frame] != null ? (int) frame : -1;
+        }
+        int frame = Arrays.binarySearch(times, time);
+        return frame >= 0 ? frame : -1;
+    }
+
+    // Builds the frame index of detectedObjectsList; of frames with the same time, the first one counts
+    private void indexFrames() {
+        List<StampedDetectedObject> sorted = new ArrayList<>(detectedObjectsList);
+        sorted.sort((a, b) -> Integer.compare(a.getTime(), b.getTime())); // stable, so the first stays first
+        List<StampedDetectedObject> distinct = new ArrayList<>(sorted.size());
+        for (StampedDetectedObject frame : sorted) {
+            if (distinct.isEmpty() || distinct.get(distinct.size() - 1).getTime() != frame.getTime()) {
+                distinct.add(frame);
+            }
+        }
+        int count = distinct.size();
+        firstTime = count == 0 ? 0 : distinct.get(0).getTime();
+        long span = count == 0 ? 0 : (long) distinct.get(count - 1).getTime() - firstTime + 1;
+        if (span <= 2L * count + 16) { // dense enough that the gaps cost little
+            times = null;
+            frames = new StampedDetectedObject[(int) span];
+            errors = new String[(int) span];
+            for (StampedDetectedObject frame : distinct) {
+                frames[frame.getTime() - firstTime] = frame;
+                errors[frame.getTime() - firstTime] = errorOf(frame);
+            }
+        } else {
+            times = new int[count];
+            frames = distinct.toArray(new StampedDetectedObject[0]);
+            errors = new String[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = frames[i].getTime();
+                errors[i] = errorOf(frames[i]);
             }
         }
-        return null; 
+    }
+
+    private static String errorOf(StampedDetectedObject frame) {
+        if (frame.getDetectedObjects() == null) {
+            return null;
+        }
+        for (DetectedObject obj : frame.getDetectedObjects()) {
+            if ("ERROR".equals(obj.getId())) {
+                return obj.getDescription();
+            }
+        }
+        return null;
     }
 
     public void loadDetectedObjectsFromFile(String filePath, String cameraKey) {
-        try (FileReader reader = new FileReader(filePath)) {
-            System.out.println("Camera attempting to read file: " + new File(filePath).getAbsolutePath());
-            Gson gson = new Gson();
-            java.lang.reflect.Type type = new TypeToken<Map<String, List<List<StampedDetectedObject>>>>() {
-            }.getType();
-            Map<String, List<List<StampedDetectedObject>>> cameraData = gson.fromJson(reader, type);
-            List<List<StampedDetectedObject>> nestedCameraObjects = cameraData.get(cameraKey);
-            if (nestedCameraObjects != null) {
-                List<StampedDetectedObject> cameraObjects = new ArrayList<>();
-                for (List<StampedDetectedObject> list : nestedCameraObjects) {
-                    cameraObjects.addAll(list);
-                }
-                detectedObjectsList = new ArrayList<>(cameraObjects);
+        try {
+            Log.info("Camera attempting to read file: {}", new File(filePath).getAbsolutePath());
+            List<StampedDetectedObject> cameraObjects = CameraDataLoader.load(filePath, List.of(cameraKey)).get(cameraKey);
+            if (cameraObjects != null) {
+                detectedObjectsList = cameraObjects;
                 maxTime = cameraObjects.stream().mapToInt(StampedDetectedObject::getTime).max().orElse(4);
             } else {
                 detectedObjectsList = new ArrayList<>();
             }
-            System.out.println("Camera " + id + " loaded " + detectedObjectsList.size() + " detected objects.");
+            Log.info("Camera {} loaded {} detected objects.", id, detectedObjectsList.size());
         } catch (IOException e) {
             detectedObjectsList = new ArrayList<>();
-        } catch (Exception e) {
-            detectedObjectsList = new ArrayList<>();
         }
+        indexFrames();
     }
     
     
@@ -0,0 +1,142 @@
+package bgu.spl.mics.application.objects;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the frames of the cameras from a camera data file in a single pass over
+ * a {@link JsonReader}, without building a tree of the whole file: the frames of
+ * the requested camera keys are read straight into {@link StampedDetectedObject}s
+ * and every other key is skipped unread.
+ * <p>
+ * The frames of a key may be one array of frames or an array of arrays of frames,
+ * which are joined in order. Ids and descriptions that repeat across frames share
+ * one string, so the memory held after loading grows with the distinct objects
+ * and the frames, not with the size of the file.
+ */
+public final class CameraDataLoader {
+
+    private CameraDataLoader() {
+    }
+
+    /**
+     * Reads the frames of the given camera keys from a camera data file.
+     *
+     * @param filePath   The camera data file.
+     * @param cameraKeys The keys of the configured cameras.
+     * @return The frames of each of the keys found in the file, in file order.
+     * @throws IOException If the file cannot be read or is not valid camera data.
+     */
+    public static Map<String, List<StampedDetectedObject>> load(String filePath, Collection<String> cameraKeys) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            return load(reader, cameraKeys);
+        }
+    }
+
+    /**
+     * Reads the frames of the given camera keys from camera data.
+     *
+     * @see #load(String, Collection)
+     */
+    public static Map<String, List<StampedDetectedObject>> load(Reader reader, Collection<String> cameraKeys) throws IOException {
+        Set<String> wanted = new HashSet<>(cameraKeys);
+        Map<String, List<StampedDetectedObject>> cameras = new LinkedHashMap<>();
+        Map<String, String> strings = new HashMap<>();
+        try (JsonReader json = new JsonReader(reader)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                if (wanted.contains(key)) {
+                    ArrayList<StampedDetectedObject> frames = new ArrayList<>();
+                    readFrames(json, frames, strings);
+                    frames.trimToSize();
+                    cameras.put(key, frames); // as in a tree of the file, a repeated key replaces the earlier one
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        } catch (IllegalStateException | NumberFormatException e) { // a value of the wrong type
+            throw new IOException("Invalid camera data: " + e.getMessage(), e);
+        }
+        return cameras;
+    }
+
+    // An array of frames, or of arrays of frames
+    private static void readFrames(JsonReader json, List<StampedDetectedObject> frames, Map<String, String> strings) throws IOException {
+        json.beginArray();
+        while (json.hasNext()) {
+            if (json.peek() == JsonToken.BEGIN_ARRAY) {
+                readFrames(json, frames, strings);
+            } else {
+                frames.add(readFrame(json, strings));
+            }
+        }
+        json.endArray();
+    }
+
+    private static StampedDetectedObject readFrame(JsonReader json, Map<String, String> strings) throws IOException {
+        int time = 0;
+        ArrayList<DetectedObject> detectedObjects = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "time":
+                    time = json.nextInt();
+                    break;
+                case "detectedObjects":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        detectedObjects.add(readDetectedObject(json, strings));
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        detectedObjects.trimToSize();
+        return new StampedDetectedObject(time, detectedObjects);
+    }
+
+    private static DetectedObject readDetectedObject(JsonReader json, Map<String, String> strings) throws IOException {
+        String id = null;
+        String description = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id":
+                    id = shared(json.nextString(), strings);
+                    break;
+                case "description":
+                    description = shared(json.nextString(), strings);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return new DetectedObject(id, description);
+    }
+
+    private static String shared(String value, Map<String, String> strings) {
+        String existing = strings.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+}
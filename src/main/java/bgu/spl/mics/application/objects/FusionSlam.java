@@ -6,6 +6,7 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import bgu.spl.mics.Event;
+import bgu.spl.mics.Log;
 import bgu.spl.mics.application.messages.DetectObjectsEvent;
 import bgu.spl.mics.application.messages.TrackedObjectsEvent;
 
@@ -98,7 +99,7 @@ public class FusionSlam {
             String id = obj.getId();
             Pose relaventPose = getPoseAtTime(obj.getTime());
             if (relaventPose == null) {// just for test
-                System.out.println("No pose found for time: " + obj.getTime() + ". Skipping object: " + id);
+                Log.warn("No pose found for time: {}. Skipping object: {}", obj.getTime(), id);
                 continue; 
             }
             List<CloudPoint> globalCoordinates = transformToGlobal(obj.getCoordinates(), relaventPose);
@@ -293,7 +294,7 @@ public class FusionSlam {
         try (FileWriter writer = new FileWriter(filePath)) {
             gson.toJson(outputData, writer);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("Could not write the output file {}", filePath, e);
         }
     }
     
@@ -328,7 +329,7 @@ public class FusionSlam {
         try (FileWriter writer = new FileWriter(filePath)) {
             gson.toJson(outputData, writer);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("Could not write the output file {}", filePath, e);
         }
     }
 
@@ -1,5 +1,7 @@
 package bgu.spl.mics.application.objects;
 
+import bgu.spl.mics.Log;
+
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -20,12 +22,14 @@ public class GPSIMU {
     private STATUS status; 
     private List<Pose> poseList; 
     private int maxTime; 
+    private final Timeline timeline; // the pose times and maxTime
 
     public GPSIMU(String filePath) {
         this.currentTick = 0;
         this.status = STATUS.UP;
         this.poseList = loadPosesFromFile(filePath); 
         this.maxTime = calculateMaxTime(); 
+        this.timeline = Timeline.of(poseList, Pose::getTime, maxTime);
     }
 
     public GPSIMU(List<Pose> poseList, int maxTime) { // Constructor for main---------------
@@ -33,6 +37,7 @@ public class GPSIMU {
         this.status = STATUS.UP; 
         this.poseList = poseList;
         this.maxTime = maxTime;
+        this.timeline = Timeline.of(poseList, Pose::getTime, maxTime);
     }
 
 
@@ -49,6 +54,13 @@ public class GPSIMU {
         return poseList;
     }
 
+    /**
+     * @return The ticks at which a pose is sent, and maxTime when the GPSIMU shuts down.
+     */
+    public Timeline getTimeline() {
+        return timeline;
+    }
+
     public Pose getPoseAtTime() {
         updateStatusBasedOnTime();
         for (Pose pose : poseList) {
@@ -69,10 +81,10 @@ public class GPSIMU {
 
     public List<Pose> loadPosesFromFile(String filePath) {
         try (FileReader reader = new FileReader(filePath)) {
-            System.out.println("pose attempting to read file: " + new File(filePath).getAbsolutePath());
+            Log.info("pose attempting to read file: {}", new File(filePath).getAbsolutePath());
             Gson gson = new Gson();
             List<Pose> data = gson.fromJson(reader, new TypeToken<List<Pose>>() {}.getType());
-            System.out.println("pose loaded " + data.size() + " detected objects.");
+            Log.info("pose loaded {} detected objects.", data.size());
             return data;
         } catch (IOException e) {
             return new ArrayList<>(); // Return an empty list in case of failure
@@ -87,7 +99,7 @@ public class GPSIMU {
     //Update the status to DOWN if the current time exceeds or equals the maximum time.
     public void updateStatusBasedOnTime() {
         if (currentTick >= maxTime) {
-            System.out.println("pose down because the time is " + currentTick);
+            Log.debug("pose down because the time is {}", currentTick);
             setStatus(STATUS.DOWN);
         }
     }
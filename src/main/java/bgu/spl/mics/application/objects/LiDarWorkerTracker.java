@@ -12,7 +12,7 @@ public class LiDarWorkerTracker {
     private int id;
     private int frequency;
     private STATUS status;
-    private List<TrackedObject> lastTrackedObjects;
+    private volatile List<TrackedObject> lastTrackedObjects; // also set when a held event is released
     private LiDarDataBase liDarDataBase;
     private int currentTick = 0;
     private int maxTime;
@@ -62,6 +62,14 @@ public class LiDarWorkerTracker {
         return lastTrackedObjects;
     }
 
+    /**
+     * @return The ticks at which the worker has work of its own: only maxTime, when it
+     * shuts down. It tracks objects when it receives detections, not on ticks.
+     */
+    public Timeline getTimeline() {
+        return Timeline.of(maxTime);
+    }
+
     public List<StampedCloudPoints> getLiDarData() {
         return liDarDataBase.getCloudPoints();
     }
@@ -1,5 +1,7 @@
 package bgu.spl.mics.application.objects;
 
+import bgu.spl.mics.Log;
+
 /**
  * Represents the status of a system component.
  * Possible statuses:
@@ -25,7 +27,7 @@ public enum STATUS {
             case "ERROR":
                 return ERROR;
             default:
-                System.out.println("Invalid status string: " + statusString);
+                Log.warn("Invalid status string: {}", statusString);
                 return ERROR;  // Default to ERROR if invalid
         }
     }
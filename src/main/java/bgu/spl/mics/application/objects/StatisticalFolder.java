@@ -5,6 +5,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import bgu.spl.mics.Event;
+import bgu.spl.mics.Histogram;
 
 public class StatisticalFolder {
   
@@ -14,6 +15,8 @@ public class StatisticalFolder {
     private AtomicInteger numTrackedObjects;   
     private AtomicInteger numLandmarks;           
     private Map<String, Event<?>> lastFrames;      
+    private final Histogram tickJitter = new Histogram(); // how late each tick was sent, in nanoseconds
+    private final AtomicInteger tickOverruns = new AtomicInteger(0); // ticks sent a whole TickTime late
 
     public StatisticalFolder() {
         this.systemRuntime = new AtomicInteger(0);
@@ -71,4 +74,19 @@ public class StatisticalFolder {
     public Map<String, Event<?>> getLastFrames() {
         return lastFrames;
     }
+
+    /**
+     * @return How late the wall clock sent each tick, in nanoseconds.
+     */
+    public Histogram getTickJitter() {
+        return tickJitter;
+    }
+
+    public int getTickOverruns() {
+        return tickOverruns.get();
+    }
+
+    public void updateTickOverruns(int overruns) {
+        this.tickOverruns.addAndGet(overruns);
+    }
 }
\ No newline at end of file
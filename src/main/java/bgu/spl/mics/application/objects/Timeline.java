@@ -0,0 +1,67 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.ToIntFunction;
+
+/**
+ * The ticks at which a sensor has work, known when its data is loaded, e.g. the
+ * times of a camera's detections. Lets the clock skip the ticks in between.
+ * Immutable.
+ */
+public final class Timeline {
+
+    private final int[] ticks; // sorted, without duplicates
+
+    private Timeline(int[] ticks) {
+        this.ticks = ticks;
+    }
+
+    /**
+     * @param items   The stamped data of a sensor.
+     * @param timeOf  The time of an item.
+     * @param extra   More ticks with work, e.g. the one at which the sensor shuts down.
+     * @return The timeline of the times of {@code items} and the {@code extra} ticks.
+     */
+    public static <T> Timeline of(Collection<T> items, ToIntFunction<? super T> timeOf, int... extra) {
+        int[] ticks = new int[items.size() + extra.length];
+        int i = 0;
+        for (T item : items) {
+            ticks[i++] = timeOf.applyAsInt(item);
+        }
+        System.arraycopy(extra, 0, ticks, i, extra.length);
+        Arrays.sort(ticks);
+        int distinct = 0;
+        for (int tick : ticks) {
+            if (distinct == 0 || ticks[distinct - 1] != tick) {
+                ticks[distinct++] = tick;
+            }
+        }
+        return new Timeline(Arrays.copyOf(ticks, distinct));
+    }
+
+    /**
+     * @return The timeline of the given ticks.
+     */
+    public static Timeline of(int... ticks) {
+        return of(Collections.emptyList(), item -> 0, ticks);
+    }
+
+    /**
+     * @return The first tick after {@code tick} with work, or {@link Integer#MAX_VALUE}
+     * if there is none.
+     */
+    public int next(int tick) {
+        int at = Arrays.binarySearch(ticks, tick);
+        int following = at >= 0 ? at + 1 : -at - 1;
+        return following < ticks.length ? ticks[following] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return The number of ticks with work.
+     */
+    public int size() {
+        return ticks.length;
+    }
+}
@@ -1,7 +1,6 @@
 package bgu.spl.mics.application.services;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
+import bgu.spl.mics.Log;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.DetectObjectsEvent;
@@ -21,7 +20,6 @@ import bgu.spl.mics.application.objects.StatisticalFolder;
  */
 public class CameraService extends MicroService {
     private final Camera camera;
-    private Queue<DetectObjectsEvent> eventQueue;
 
 
     /**
@@ -32,7 +30,6 @@ public class CameraService extends MicroService {
     public CameraService(Camera camera) {
         super("CameraService" + camera.getId());
         this.camera = camera;
-        this.eventQueue = new ArrayDeque<>();
 
     }
 
@@ -46,44 +43,42 @@ public class CameraService extends MicroService {
         // Subscribe to TickBroadcast
         subscribeBroadcast(TickBroadcast.class, (TickBroadcast broadcast) -> {
             int currentTime = broadcast.getTime();
-            System.out.println(getName() + ": got a tick, " + currentTime + " and my status is: " + camera.getStatus());
+            if (Log.isDebugEnabled()) {
+                Log.debug("{}: got a tick, {} and my status is: {}", getName(), currentTime, camera.getStatus());
+            }
             // Check if the camera is active and it's time to send an event
             if (camera.getStatus() == STATUS.UP) {
                 StampedDetectedObject detectedObject = camera.getDetectedObjectsAtTime(currentTime);
                 if (camera.getStatus() == STATUS.ERROR){
-                    System.out.println(getName() + ": has an error");
+                    Log.info("{}: has an error", getName());
                     terminate();
+                    // a control message: every service, the clock included, stops ahead of its queued work
                     sendBroadcast(new CrashedBroadcast(camera.getErrMString(), "camera" + camera.getId()));
                 }
                 else{
                     if (detectedObject != null) {
                         int sendTime = currentTime + camera.getFrequency();
                         DetectObjectsEvent event = new DetectObjectsEvent(detectedObject, getName(), sendTime);
-                        eventQueue.add(event);
+                        // the message-bus holds the event until its send time
+                        sendEventAt(event, sendTime, () -> {
+                            if (Log.isDebugEnabled()) {
+                                Log.debug("{}: has sent DetectObjectsEvent from time{}", getName(), event.getStampedDetectedObjects().getTime());
+                            }
+                            StatisticalFolder.getInstance().updateNumDetectedObjects(
+                                    event.getStampedDetectedObjects().getDetectedObjects().size()
+                            );
+                            StatisticalFolder.getInstance().updateLastFrame(getName(), event);
+                        });
                     }
-                    // Process events that are ready to be sent
-                    while (!eventQueue.isEmpty()) {
-                        DetectObjectsEvent event = eventQueue.peek();
-                        if (event.getSendTime() > currentTime) {
-                            break; // If the first event is not ready, stop processing
-                        }
-                        DetectObjectsEvent readyEvent = eventQueue.poll(); // Remove the first event (FIFO)
-                        sendEvent(readyEvent);
-                        System.out.println(getName() + ": has sent DetectObjectsEvent from time" + event.getStampedDetectedObjects().getTime());
-                        StatisticalFolder.getInstance().updateNumDetectedObjects(
-                                readyEvent.getStampedDetectedObjects().getDetectedObjects().size()
-                        );
-                        StatisticalFolder.getInstance().updateLastFrame(getName(), readyEvent);
-                    }  
                 }
                 if (camera.getStatus() == STATUS.DOWN){
-                    System.out.println(getName() + ": down1 and terminate");
+                    Log.info("{}: down1 and terminate", getName());
                     terminate();
                     sendBroadcast(new TerminatedBroadcast(getName()));  
                 }
             }
             else {//camers is down 
-                System.out.println(getName() + ": down2 and terminate");
+                Log.info("{}: down2 and terminate", getName());
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));     
             }
@@ -91,13 +86,13 @@ public class CameraService extends MicroService {
         // Subscribe to TerminatedBroadcast
         subscribeBroadcast(TerminatedBroadcast.class, (TerminatedBroadcast broadcast) -> {
             if (broadcast.getSenderId() == "TimeService"){
-                System.out.println(getName() + ": got TerminatedBroadcast from TimeService");
+                Log.info("{}: got TerminatedBroadcast from TimeService", getName());
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));  
             }
         });
         subscribeBroadcast(CrashedBroadcast.class, (CrashedBroadcast broadcast) -> {
-            System.out.println(getName() + ": got crashed");
+            Log.info("{}: got crashed", getName());
             terminate();
         });
         
@@ -36,14 +36,16 @@ public class FusionSlamService extends MicroService {
     protected void initialize() {
         // Register for TrackedObjectsEvent
         subscribeEvent(TrackedObjectsEvent.class, event -> {
-            System.out.println(getName() + ": got TrackedObjectsEvent");
+            Log.debug("{}: got TrackedObjectsEvent", getName());
             if (fusionSlam.getPoseAtTime(event.getTrackedObjects().get(0).getTime())  != null){
                 fusionSlam.processTrackedObjects(event.getTrackedObjects());
-                System.out.println(getName()+ "processed TrackedObjectsEvent for objects from time"+ event.getTime() );
+                if (Log.isDebugEnabled()) {
+                    Log.debug("{}processed TrackedObjectsEvent for objects from time{}", getName(), event.getTime());
+                }
                 complete(event, true);
             }
             else{
-                System.out.println("this event had no pose");
+                Log.debug("this event had no pose");
                 waitingTrackedObjects.add(event);
             }
             
@@ -51,43 +53,51 @@ public class FusionSlamService extends MicroService {
 
         // Register for PoseEvent
         subscribeEvent(PoseEvent.class, event -> {
-            System.out.println(getName() + ": got PoseEvent");
+            Log.debug("{}: got PoseEvent", getName());
             fusionSlam.addPose(event.getPose());
-            System.out.println("PoseEvent from "+ event.getPose().getTime() +" has been processed in: " + getName());
+            if (Log.isDebugEnabled()) {
+                Log.debug("PoseEvent from {} has been processed in: {}", event.getPose().getTime(), getName());
+            }
             complete(event, true);
             while (!waitingTrackedObjects.isEmpty() && fusionSlam.getPoseAtTime(waitingTrackedObjects.peek().getTime()) != null){
                 TrackedObjectsEvent e = waitingTrackedObjects.poll(); 
                 fusionSlam.processTrackedObjects(e.getTrackedObjects());
-                System.out.println(getName()+ "processed waiting TrackedObjectsEvent for objects from time"+ e.getTime() );
+                if (Log.isDebugEnabled()) {
+                    Log.debug("{}processed waiting TrackedObjectsEvent for objects from time{}", getName(), e.getTime());
+                }
                 complete(e, true);
             }
         });
 
         // Register for TickBroadcast
         subscribeBroadcast(TickBroadcast.class, broadcast -> {
-            System.out.println(getName() + ": got a tick and the tick is, " + broadcast.getTime());
+            if (Log.isDebugEnabled()) {
+                Log.debug("{}: got a tick and the tick is, {}", getName(), broadcast.getTime());
+            }
            fusionSlam.setTick(broadcast.getTime());
         });
 
 
         // Register for CrashedBroadcast
         subscribeBroadcast(CrashedBroadcast.class, broadcast -> {
-            System.out.println(getName() + ": got crashed and terminate");
+            Log.info("{}: got crashed and terminate", getName());
             terminate();
             String errorDescription = broadcast.getErrorMessage(); 
             String faultySensor = broadcast.getSenderId(); 
-            System.out.println(getName() + ": is printing an error output file");
+            Log.info("{}: is printing an error output file", getName());
             fusionSlam.generateOutputFileWithError(outputFilePath, errorDescription, faultySensor);
         });
         subscribeBroadcast(TerminatedBroadcast.class, broadcast -> {
             if (broadcast.getSenderId() != "TimeService "){
                 fusionSlam.decreaseServiceCounter();
-                System.out.println(getName() + ": counter is "+ fusionSlam.getserviceCounter()+ "because of" +broadcast.getSenderId() ) ;
+                if (Log.isDebugEnabled()) {
+                    Log.debug("{}: counter is {}because of{}", getName(), fusionSlam.getserviceCounter(), broadcast.getSenderId());
+                }
                 if (fusionSlam.getserviceCounter() == 0) {
-                    System.out.println(getName() + ": counter is 0 to terminate");
+                    Log.debug("{}: counter is 0 to terminate", getName());
                     terminate();
-                    System.out.println(getName() + ": is terminated");
-                    System.out.println(getName() + ": is printing an output file");
+                    Log.info("{}: is terminated", getName());
+                    Log.info("{}: is printing an output file", getName());
                     fusionSlam.generateOutputFileWithoutError(outputFilePath);
                 }
             }
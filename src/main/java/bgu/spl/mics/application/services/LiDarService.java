@@ -1,5 +1,6 @@
 package bgu.spl.mics.application.services;
 
+import bgu.spl.mics.Log;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.DetectObjectsEvent;
@@ -14,9 +15,7 @@ import bgu.spl.mics.application.objects.StatisticalFolder;
 //import static org.junit.Assert.assertSame;
 
 //import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * LiDarService is responsible for processing data from the LiDAR sensor and
@@ -29,13 +28,11 @@ import java.util.PriorityQueue;
 public class LiDarService extends MicroService {
 
     private final LiDarWorkerTracker lidarWorkerTracker;
-    private  PriorityQueue<TrackedObjectsEvent> eventQueue;
 
 
     public LiDarService(String name, LiDarWorkerTracker lidarWorkerTracker) {
         super(name);
         this.lidarWorkerTracker = lidarWorkerTracker;
-        this.eventQueue = new PriorityQueue<>(Comparator.comparingInt(event -> event.getTime()));
 
     }
 
@@ -43,25 +40,13 @@ public class LiDarService extends MicroService {
     protected void initialize() {
         subscribeBroadcast(TickBroadcast.class, tick -> {
             int currentTime = tick.getTime();
-            System.out.println(getName() + ": got a tick and the tick is, " + tick.getTime());
+            if (Log.isDebugEnabled()) {
+                Log.debug("{}: got a tick and the tick is, {}", getName(), tick.getTime());
+            }
             lidarWorkerTracker.updateTick(currentTime);
-            while (!eventQueue.isEmpty()) {
-                TrackedObjectsEvent event = eventQueue.peek();
-                if (event.getdesignatedTime() > currentTime) {
-                    break;
-                }
-                TrackedObjectsEvent readyEvent = eventQueue.poll();
-                complete(readyEvent.getHandeledEvent(), true);
-                lidarWorkerTracker.setLastTrackedObjects(readyEvent.getTrackedObjects());
-                System.out.println(getName() + ": sent TrackedObjectsEvent at time" + currentTime+ "for object from time" + event.getTime() );
-                sendEvent(readyEvent);
-                StatisticalFolder.getInstance().updateNumDetectedObjects(
-                    readyEvent.getTrackedObjects().size());
-                StatisticalFolder.getInstance().updateLastFrame(getName(), readyEvent);
-
-            } 
-            if (eventQueue.isEmpty() && (lidarWorkerTracker.getStatus()==STATUS.DOWN)){
-                System.out.println(getName() + ": is down, finished and terminated");
+            // held events due by this tick were handed back and sent ahead of the tick
+            if (!hasHeldEvents() && (lidarWorkerTracker.getStatus()==STATUS.DOWN)){
+                Log.info("{}: is down, finished and terminated", getName());
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));    
             } 
@@ -69,23 +54,26 @@ public class LiDarService extends MicroService {
 
         subscribeBroadcast(TerminatedBroadcast.class, (TerminatedBroadcast broadcast) -> {
             if (broadcast.getSenderId() == "TimeService"){
-                System.out.println(getName() + ": got TerminatedBroadcast from TimeService");
+                Log.info("{}: got TerminatedBroadcast from TimeService", getName());
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));  
             }
         });
         subscribeBroadcast(CrashedBroadcast.class, (CrashedBroadcast broadcast) -> {
-            System.out.println(getName() + ": got crashed");
+            Log.info("{}: got crashed", getName());
             terminate();
         });
     
         subscribeEvent(DetectObjectsEvent.class, event -> {
-            System.out.println(getName() + ": got DetectObjectsEvent from" +event.getSenderName() +"for time:" + event.getStampedDetectedObjects().getTime());
+            if (Log.isDebugEnabled()) {
+                Log.debug("{}: got DetectObjectsEvent from{}for time:{}", getName(), event.getSenderName(), event.getStampedDetectedObjects().getTime());
+            }
             if(lidarWorkerTracker.getStatus()==STATUS.UP){   
                 List<TrackedObject> TrackedObjects = lidarWorkerTracker.prosseingEvent(event.getStampedDetectedObjects());
                if (lidarWorkerTracker.getStatus()==STATUS.ERROR){
-                    System.out.println(getName() + ": has an eror");
+                    Log.info("{}: has an eror", getName());
                     terminate();
+                    // a control message: every service, the clock included, stops ahead of its queued work
                     sendBroadcast(new CrashedBroadcast("LidarWorker" + lidarWorkerTracker.getId() + "disconnected", this.getName()+ ""+"LidarWorker" + lidarWorkerTracker.getId() ));
                }
                else{
@@ -94,24 +82,35 @@ public class LiDarService extends MicroService {
                     TrackedObjectsEvent toSendEvent = (new TrackedObjectsEvent(event, event.getStampedDetectedObjects().getTime(), TrackedObjects, getName(), designatedTime));
                     if (designatedTime <= currTime){ 
                         complete(event, true);
-                        System.out.println(getName() + ": sent TrackedObjectsEvent at time" + currTime + "for object from time" + event.getStampedDetectedObjects().getTime() );
+                        if (Log.isDebugEnabled()) {
+                            Log.debug("{}: sent TrackedObjectsEvent at time{}for object from time{}", getName(), currTime, event.getStampedDetectedObjects().getTime());
+                        }
                         sendEvent(toSendEvent);
                         lidarWorkerTracker.setLastTrackedObjects(TrackedObjects);
                         StatisticalFolder.getInstance().updateNumTrackedObjects(TrackedObjects.size());
                         StatisticalFolder.getInstance().updateLastFrame(getName(), toSendEvent);
                     }
                     else{
-                        eventQueue.add(toSendEvent);
+                        // the message-bus holds the event until its designated time
+                        sendEventAt(toSendEvent, designatedTime, () -> {
+                            complete(event, true);
+                            lidarWorkerTracker.setLastTrackedObjects(TrackedObjects);
+                            if (Log.isDebugEnabled()) {
+                                Log.debug("{}: sent TrackedObjectsEvent at time{}for object from time{}", getName(), designatedTime, toSendEvent.getTime());
+                            }
+                            StatisticalFolder.getInstance().updateNumTrackedObjects(TrackedObjects.size());
+                            StatisticalFolder.getInstance().updateLastFrame(getName(), toSendEvent);
+                        });
                     }
                }
-               if (eventQueue.isEmpty() && lidarWorkerTracker.getStatus() == STATUS.DOWN){
-                System.out.println(getName() + ": is down, finished and terminated");
+               if (!hasHeldEvents() && lidarWorkerTracker.getStatus() == STATUS.DOWN){
+                Log.info("{}: is down, finished and terminated", getName());
                     terminate();
                     sendBroadcast(new TerminatedBroadcast(getName()));  
                 }
             }
-            else if (eventQueue.isEmpty()){
-                System.out.println(getName() + ": is down2, finished and terminated");
+            else if (!hasHeldEvents()){
+                Log.info("{}: is down2, finished and terminated", getName());
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));    
             }          
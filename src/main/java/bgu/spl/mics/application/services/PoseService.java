@@ -1,5 +1,6 @@
 package bgu.spl.mics.application.services;
 
+import bgu.spl.mics.Log;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.PoseEvent;
@@ -36,21 +37,25 @@ public class PoseService extends MicroService {
         // Subscribe to TickBroadcast to handle ticks
         subscribeBroadcast(TickBroadcast.class, tick -> {
             gpsimu.SetTick(tick.getTime());
-            System.out.println(getName() + ": got a tick and the tick is, " + tick.getTime());
+            if (Log.isDebugEnabled()) {
+                Log.debug("{}: got a tick and the tick is, {}", getName(), tick.getTime());
+            }
             if (gpsimu.getStatus() == STATUS.UP) {
                 Pose currentPose = gpsimu.getPoseAtTime();
                 if (currentPose != null) {
                     // Broadcast PoseEvent with the current pose and sender name
-                    System.out.println(getName() + ": sent PoseEvent at time"+ tick.getTime() );
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("{}: sent PoseEvent at time{}", getName(), tick.getTime());
+                    }
                     sendEvent(new PoseEvent(currentPose, getName()));
                 }
                 if (gpsimu.getStatus() == STATUS.DOWN){
-                    System.out.println(getName() + ": is down and terminated");
+                    Log.info("{}: is down and terminated", getName());
                     terminate();
                     sendBroadcast(new TerminatedBroadcast(getName())); 
                 }
             } else {
-                System.out.println(getName() + ": is down2 and terminated");
+                Log.info("{}: is down2 and terminated", getName());
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));     
             }
@@ -58,14 +63,14 @@ public class PoseService extends MicroService {
         // Subscribe to TerminatedBroadcast
         subscribeBroadcast(TerminatedBroadcast.class, (TerminatedBroadcast broadcast) -> {
             if (broadcast.getSenderId() == "TimeService"){
-                System.out.println(getName() + ": got TerminatedBroadcast from TimeService");
+                Log.info("{}: got TerminatedBroadcast from TimeService", getName());
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));  
             }
         });
         // Subscribe to TerminatedBroadcast
         subscribeBroadcast(CrashedBroadcast.class, (CrashedBroadcast broadcast) -> {
-            System.out.println(getName() + ": got crashed");
+            Log.info("{}: got crashed", getName());
             terminate();
         });
     }
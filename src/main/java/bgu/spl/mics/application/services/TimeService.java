@@ -1,33 +1,183 @@
 package bgu.spl.mics.application.services;
 
+import bgu.spl.mics.Histogram;
+import bgu.spl.mics.Log;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.application.objects.FusionSlam;
 import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.Timeline;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * TimeService acts as the global timer for the system, broadcasting TickBroadcast messages
  * at regular intervals and controlling the simulation's duration.
+ * <p>
+ * The wall clock runs at a fixed rate: tick {@code n} is due {@code n - 1} TickTimes
+ * after the first one on the monotonic clock, however long the callbacks and the
+ * message-bus took in between, so delays do not add up over the run. How late each
+ * tick was sent is recorded in {@link StatisticalFolder#getTickJitter()}; a tick sent
+ * a whole TickTime late is an overrun, and the following ticks catch up at once.
+ * <p>
+ * The wall clock can also replay faster or slower than real time: at a speed of 2 a
+ * tick lasts half a TickTime, and at an unlimited speed each tick follows as soon as
+ * the previous one settled, if quiescence detection is enabled, or at once otherwise.
+ * The speed may be changed from any thread while the simulation runs, see
+ * {@link #setSpeed(double)}; the schedule then restarts from the last tick at the new
+ * rate. The speed achieved since the last change is reported next to the requested one.
+ * <p>
+ * In quiescent mode it does not sleep between ticks: it sends the next tick as soon
+ * as every other service has handled everything that the current tick caused. That is
+ * what a long enough TickTime is for, so the results are those of the wall-clock mode
+ * in a fraction of the time. Neither mode fixes the order in which services that run
+ * at the same time send within a tick, e.g. which of two cameras' frames a LiDAR
+ * worker takes first when the workers take turns, so such runs may differ in either.
+ * <p>
+ * In discrete-event mode it also skips the ticks at which nothing would happen: once
+ * the current tick settled, it jumps to the next tick at which a sensor's timeline or
+ * an event held by the message-bus has work. The system runtime still counts every
+ * tick that passed.
+ * <p>
+ * A crash stops the run at once in every mode. The sensor sends its crash as a control
+ * message, which every service handles ahead of the messages it has queued, and the
+ * clock handles it before it would send the next tick, even while it waits for the
+ * current one to end. So the run always ends at the crash tick, but which of that
+ * tick's messages the fusion handled before the crash depends on the scheduling.
  */
 public class TimeService extends MicroService {
 
-    private final int tickTime;  
+    /** How the clock decides when to send the next tick. */
+    public enum ClockMode {
+        /** Every TickTime, at a fixed rate. */
+        WALL_CLOCK,
+        /** As soon as the current tick settled. */
+        QUIESCENT,
+        /** As soon as the current tick settled, straight to the next tick with work. */
+        DISCRETE_EVENT
+    }
+
+    // a tick that does not settle by then is reported and the clock moves on
+    private static final long QUIESCENCE_TIMEOUT_SECONDS = 10;
+
+    private final long tickNanos;
     private final int duration;  
+    private final ClockMode mode;
+    private final List<Timeline> timelines; // of the sensors, for the discrete-event mode
+    private volatile double speed = 1.0; // the requested real-time factor, infinite for unlimited
+    private volatile double achievedSpeed = Double.NaN; // since the last change of speed
+    private volatile int lastTick; // the last tick sent
+    private volatile Thread clockThread;
+    // The schedule: from startTick sent at startNanos, a tick every TickTime / pacedSpeed. Clock thread only
+    private double pacedSpeed;
+    private long startNanos;
+    private int startTick;
+    private long lastTickNanos;
 
 
 
     /**
      * Constructor for TimeService.
      *
-     * @param tickTime  The duration of each tick in milliseconds.
+     * @param tickTime  The duration of each tick in seconds.
      * @param duration  The total number of ticks before the service terminates.
      */
     public TimeService(int tickTime, int duration) {
+        this(tickTime, TimeUnit.SECONDS, duration, ClockMode.WALL_CLOCK, Collections.emptyList());
+    }
+
+    /**
+     * Constructor for TimeService.
+     *
+     * @param tickTime  The duration of each tick, used in wall-clock mode only.
+     * @param unit      The unit of {@code tickTime}.
+     * @param duration  The total number of ticks before the service terminates.
+     * @param mode      How to advance the clock; every mode but the wall clock needs
+     *                  quiescence detection enabled before any service registers.
+     * @param timelines The ticks at which the sensors have work, used in discrete-event mode.
+     */
+    public TimeService(long tickTime, TimeUnit unit, int duration, ClockMode mode, List<Timeline> timelines) {
         super("TimeService");
-        this.tickTime = tickTime;
+        this.tickNanos = unit.toNanos(tickTime);
         this.duration = duration;
+        this.mode = mode;
+        this.timelines = timelines;
+    }
+
+    /**
+     * Sets the real-time factor of the wall clock, e.g. 0.5 to replay at half speed or
+     * {@link Double#POSITIVE_INFINITY} for no waiting at all. May be called from any
+     * thread, before or while the simulation runs; other clock modes ignore it.
+     *
+     * @PRE speed > 0
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("The speed must be positive, not " + speed);
+        }
+        this.speed = speed;
+        Thread thread = clockThread;
+        if (thread != null) {
+            LockSupport.unpark(thread); // the tick it waits for may be due sooner now
+        }
+    }
+
+    /**
+     * @return The requested real-time factor, infinite if unlimited.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return The real-time factor achieved since the speed last changed, NaN before
+     *         a tick was sent at it or when the wall clock is not paced.
+     */
+    public double getAchievedSpeed() {
+        return achievedSpeed;
+    }
+
+    /**
+     * @return The last tick sent.
+     */
+    public int getCurrentTick() {
+        return lastTick;
+    }
+
+    /**
+     * @param text A real-time factor such as "0.5", "10x" or "unlimited".
+     * @return The factor, infinite for "unlimited".
+     * @throws IllegalArgumentException if it is not a positive number or "unlimited".
+     */
+    public static double parseSpeed(String text) {
+        String factor = text.trim().toLowerCase(Locale.ROOT);
+        if (factor.equals("unlimited")) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (factor.endsWith("x")) {
+            factor = factor.substring(0, factor.length() - 1);
+        }
+        double speed = Double.parseDouble(factor);
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("The speed must be positive, not " + text);
+        }
+        return speed;
+    }
+
+    /**
+     * @return The real-time factor as text, e.g. "0.50x", or "unlimited".
+     */
+    public static String formatSpeed(double speed) {
+        if (Double.isNaN(speed)) {
+            return "unknown";
+        }
+        return Double.isInfinite(speed) ? "unlimited" : String.format(Locale.ROOT, "%.2fx", speed);
     }
 
     /**
@@ -36,39 +186,178 @@ public class TimeService extends MicroService {
      */
     @Override
     protected void initialize() {
-        System.out.println("TimeService initialized.");
+        Log.info("TimeService initialized.");
         
         subscribeBroadcast(CrashedBroadcast.class, (CrashedBroadcast broadcast) -> {
-            System.out.println(getName() + ": got crashed");
+            Log.info("{}: got crashed, stopping at tick {}", getName(), lastTick);
             terminate();
+            report();
         });
         
         subscribeBroadcast(TickBroadcast.class, (TickBroadcast broadcast) -> {
             int currentTick = broadcast.getTime();
-            
-            if (currentTick < duration && !FusionSlam.getInstance().isTerminated() && !isterminated()) {
-                try {
-                    Thread.sleep(tickTime * 1000L);
-                    sendBroadcast(new TickBroadcast(currentTick + 1, duration));
-                    int sentTick = currentTick +1;
-                    System.out.println("TimeService broadcasted Tick: "  + sentTick);
-                    StatisticalFolder.getInstance().updateSystemRuntime(1);
-                } catch (InterruptedException e) {
-                    System.out.println("TimeService interrupted during Tick: " + currentTick);
-                    Thread.currentThread().interrupt(); 
+            // once the fusion ended or the clock stopped, nothing is left to settle
+            boolean running = !FusionSlam.getInstance().isTerminated() && !isterminated();
+            try {
+                if (running) {
+                    awaitEndOf(currentTick);
+                }
+                // a crash reported during this tick stops the clock before the next one
+                handleControlMessages();
+                if (isterminated()) {
+                    return;
+                }
+                if (currentTick < duration && running) {
+                    int sentTick = nextTick(currentTick);
+                    // counted first, so an output written on this tick already includes it
+                    StatisticalFolder.getInstance().updateSystemRuntime(sentTick - currentTick);
+                    sendBroadcast(new TickBroadcast(sentTick, duration));
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("TimeService broadcasted Tick: {}", sentTick);
+                    }
+                    sent(sentTick);
+                } else {
                     terminate();
                     sendBroadcast(new TerminatedBroadcast(getName()));
-                    System.out.println("TimeService broadcasted TerminatedBroadcast.");
+                    Log.info("TimeService broadcasted TerminatedBroadcast.");
+                    report();
                 }
-            } else {
+            } catch (InterruptedException e) {
+                Log.warn("TimeService interrupted during Tick: {}", currentTick);
+                Thread.currentThread().interrupt(); 
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));
-                System.out.println("TimeService broadcasted TerminatedBroadcast.");
+                Log.info("TimeService broadcasted TerminatedBroadcast.");
+                report();
             }
         });
         
-        sendBroadcast(new TickBroadcast(1, duration));
-        StatisticalFolder.getInstance().updateSystemRuntime(1);
+        int firstTick = nextTick(0);
+        StatisticalFolder.getInstance().updateSystemRuntime(firstTick);
+        clockThread = Thread.currentThread();
+        pacedSpeed = speed;
+        startTick = firstTick;
+        startNanos = System.nanoTime();
+        lastTick = firstTick;
+        lastTickNanos = startNanos;
+        sendBroadcast(new TickBroadcast(firstTick, duration));
 
     }
+
+    /**
+     * Waits until {@code tick} ends: for its TickTime on the wall clock, otherwise
+     * until it settled. On the wall clock a crash ends the wait at once.
+     */
+    private void awaitEndOf(int tick) throws InterruptedException {
+        if (mode == ClockMode.WALL_CLOCK) {
+            while (!awaitDue(tick + 1)) {
+                handleControlMessages();
+                if (isterminated()) {
+                    return;
+                }
+            }
+        } else if (!awaitQuiescence(QUIESCENCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            Log.warn("TimeService: tick {} did not settle in {} s, advancing anyway", tick, QUIESCENCE_TIMEOUT_SECONDS);
+        }
+    }
+
+    /**
+     * Waits until {@code tick} is due on the fixed-rate schedule at the requested speed,
+     * and records how late it is by then. A change of speed restarts the schedule from
+     * the last tick sent.
+     *
+     * @return false if it stopped waiting because a control message arrived.
+     */
+    private boolean awaitDue(int tick) throws InterruptedException {
+        while (true) {
+            double requested = speed;
+            if (requested != pacedSpeed) {
+                reportPace();
+                pacedSpeed = requested;
+                startTick = lastTick;
+                startNanos = lastTickNanos;
+                achievedSpeed = Double.NaN;
+            }
+            if (Double.isInfinite(requested)) {
+                // unlimited: as fast as the services keep up, there is no schedule to be late for
+                if (canAwaitQuiescence() && !awaitQuiescence(QUIESCENCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    Log.warn("TimeService: tick {} did not settle in {} s, advancing anyway", tick - 1,
+                            QUIESCENCE_TIMEOUT_SECONDS);
+                }
+                return true;
+            }
+            long period = (long) (tickNanos / requested);
+            long late = System.nanoTime() - (startNanos + (tick - startTick) * period);
+            if (late >= 0) {
+                StatisticalFolder.getInstance().getTickJitter().record(late);
+                if (period > 0 && late >= period) {
+                    StatisticalFolder.getInstance().updateTickOverruns(1);
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("TimeService: tick {} is {} us late", tick, late / 1000);
+                    }
+                }
+                return true;
+            }
+            if (awaitControlMessage(-late)) {
+                return false;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    // Called on the clock thread once a tick was sent
+    private void sent(int tick) {
+        long now = System.nanoTime();
+        lastTick = tick;
+        lastTickNanos = now;
+        if (mode == ClockMode.WALL_CLOCK && tickNanos > 0 && now > startNanos) {
+            achievedSpeed = (double) (tick - startTick) * tickNanos / (now - startNanos);
+        }
+    }
+
+    // Reports the speed achieved since the last change next to the requested one
+    private void reportPace() {
+        double achieved = achievedSpeed;
+        if (Double.isNaN(achieved)) {
+            return;
+        }
+        if (!Double.isInfinite(pacedSpeed) && achieved < pacedSpeed * 0.9) {
+            Log.warn("TimeService: replayed {} ticks at {}, slower than the requested {}", lastTick - startTick,
+                    formatSpeed(achieved), formatSpeed(pacedSpeed));
+        } else {
+            Log.info("TimeService: replayed {} ticks at {}, requested {}", lastTick - startTick,
+                    formatSpeed(achieved), formatSpeed(pacedSpeed));
+        }
+    }
+
+    private void report() {
+        reportPace();
+        StatisticalFolder stats = StatisticalFolder.getInstance();
+        Histogram jitter = stats.getTickJitter();
+        if (mode == ClockMode.WALL_CLOCK && jitter.getCount() > 0) {
+            Log.info("TimeService: tick jitter p50 {} us, p99 {} us, max {} us", jitter.getPercentile(50) / 1000,
+                    jitter.getPercentile(99) / 1000, jitter.getMax() / 1000);
+            if (stats.getTickOverruns() > 0) {
+                Log.warn("TimeService: {} of {} ticks overran TickTime", stats.getTickOverruns(), jitter.getCount());
+            }
+        }
+    }
+
+    /**
+     * The tick to send after {@code currentTick}: the next one, or in discrete-event
+     * mode the first at which a sensor or a held event has work, and at most the last.
+     */
+    private int nextTick(int currentTick) {
+        // once the fusion ended, the next tick only lets the clock see it, as the wall clock does
+        if (mode != ClockMode.DISCRETE_EVENT || FusionSlam.getInstance().isTerminated()) {
+            return currentTick + 1;
+        }
+        int next = Math.min(getNextHeldTick(), duration);
+        for (Timeline timeline : timelines) {
+            next = Math.min(next, timeline.next(currentTick));
+        }
+        return Math.max(next, currentTick + 1);
+    }
 }
\ No newline at end of file
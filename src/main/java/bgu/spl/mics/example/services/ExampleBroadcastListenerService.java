@@ -1,5 +1,6 @@
 package bgu.spl.mics.example.services;
 
+import bgu.spl.mics.Log;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.example.messages.ExampleBroadcast;
 
@@ -27,13 +28,13 @@ public class ExampleBroadcastListenerService extends MicroService {
 
     @Override
     protected void initialize() {
-        System.out.println("Listener " + getName() + " started");
+        Log.info("Listener {} started", getName());
         
         subscribeBroadcast(ExampleBroadcast.class, message -> {
             mbt--;
-            System.out.println("Listener " + getName() + " got a new message from " + message.getSenderId() + "! (mbt: " + mbt + ")");
+            Log.debug("Listener {} got a new message from {}! (mbt: {})", getName(), message.getSenderId(), mbt);
             if (mbt == 0) {
-                System.out.println("Listener " + getName() + " terminating.");
+                Log.info("Listener {} terminating.", getName());
                 terminate();
             }
         });
@@ -1,5 +1,6 @@
 package bgu.spl.mics.example.services;
 
+import bgu.spl.mics.Log;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.example.messages.ExampleEvent;
 
@@ -27,14 +28,14 @@ public class ExampleEventHandlerService extends MicroService {
 
     @Override
     protected void initialize() {
-        System.out.println("Event Handler " + getName() + " started");
+        Log.info("Event Handler {} started", getName());
         
         subscribeEvent(ExampleEvent.class, ev -> {
             mbt--;
-            System.out.println("Event Handler " + getName() + " got a new event from " + ev.getSenderName() + "! (mbt: " + mbt + ")");
+            Log.debug("Event Handler {} got a new event from {}! (mbt: {})", getName(), ev.getSenderName(), mbt);
             complete(ev, "Hello from " + getName());
             if (mbt == 0) {
-                System.out.println("Event Handler " + getName() + " terminating.");
+                Log.info("Event Handler {} terminating.", getName());
                 terminate();
             }
         });
@@ -2,6 +2,7 @@ package bgu.spl.mics.example.services;
 
 import java.util.concurrent.TimeUnit;
 
+import bgu.spl.mics.Log;
 import bgu.spl.mics.Future;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.example.messages.ExampleBroadcast;
@@ -23,24 +24,24 @@ public class ExampleMessageSenderService extends MicroService {
 
     @Override
     protected void initialize() {
-        System.out.println("Sender " + getName() + " started");
+        Log.info("Sender {} started", getName());
         if (broadcast) {
             sendBroadcast(new ExampleBroadcast(getName()));
-            System.out.println("Sender " + getName() + " publish an event and terminate");
+            Log.info("Sender {} publish an event and terminate", getName());
             terminate();
         } else {
             Future<String> futureObject = (Future<String>)sendEvent(new ExampleEvent(getName()));
             if (futureObject != null) {
             	String resolved = futureObject.get(100, TimeUnit.MILLISECONDS);
             	if (resolved != null) {
-            		System.out.println("Completed processing the event, its result is \"" + resolved + "\" - success");
+            		Log.info("Completed processing the event, its result is \"{}\" - success", resolved);
             	}
             	else {
-                	System.out.println("Time has elapsed, no services has resolved the event - terminating");
+                	Log.info("Time has elapsed, no services has resolved the event - terminating");
                 }
             }
             else {
-            	System.out.println("No Micro-Service has registered to handle ExampleEvent events! The event cannot be processed");
+            	Log.warn("No Micro-Service has registered to handle ExampleEvent events! The event cannot be processed");
             }
             terminate();
         }
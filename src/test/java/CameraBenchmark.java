@@ -0,0 +1,101 @@
+import bgu.spl.mics.application.objects.Camera;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.StampedDetectedObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Frame lookup benchmark for a long recording: writes a camera data file with a
+ * million frames (by default), loads it, and replays every tick of it through
+ * {@link Camera#getDetectedObjectsAtTime(int)}. Reports the load time and the time
+ * per tick, next to a linear scan of the frames as the camera did before, which is
+ * timed on a sample of the ticks because the whole replay would be quadratic.
+ * A stride above 1 leaves gaps between the frames, so that the sorted index is used
+ * instead of the dense one.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -Xmx2g -cp target/classes:target/test-classes:gson.jar CameraBenchmark [frames] [stride]}
+ */
+public class CameraBenchmark {
+
+    private static final int SAMPLE = 200;
+
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int stride = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        Path file = Files.createTempFile("camera_data", ".json");
+        try {
+            write(file, frames, stride);
+            long start = System.nanoTime();
+            Camera camera = new Camera(1, 0, file.toString(), "camera1");
+            long loadNanos = System.nanoTime() - start;
+            List<StampedDetectedObject> list = camera.getDetectedObjectsList();
+            if (list.size() != frames) {
+                throw new IllegalStateException("Loaded " + list.size() + " of " + frames + " frames");
+            }
+            int lastTime = frames * stride;
+            System.out.printf("%d frames, a frame every %d ticks, loaded and indexed in %d ms%n",
+                    frames, stride, loadNanos / 1_000_000);
+            System.out.printf("%-12s %14s %16s%n", "lookup", "ns/tick", "whole replay ms");
+            for (int round = 0; round < 3; round++) { // the first rounds warm up
+                long found = 0;
+                start = System.nanoTime();
+                for (int time = 1; time < lastTime; time++) { // not the last tick, which shuts the camera down
+                    if (camera.getDetectedObjectsAtTime(time) != null) {
+                        found++;
+                    }
+                }
+                long indexNanos = System.nanoTime() - start;
+                if (found != frames - 1) {
+                    throw new IllegalStateException("Found " + found + " of " + (frames - 1) + " frames");
+                }
+
+                start = System.nanoTime();
+                for (int i = 0; i < SAMPLE; i++) {
+                    if (scan(list, 1 + (int) ((long) i * (lastTime - 1) / SAMPLE)) == null && stride == 1) {
+                        throw new IllegalStateException("The scan missed a frame");
+                    }
+                }
+                double scanPerTick = (double) (System.nanoTime() - start) / SAMPLE;
+                if (round == 2) {
+                    System.out.printf("%-12s %14.1f %16d%n", "index", (double) indexNanos / (lastTime - 1), indexNanos / 1_000_000);
+                    System.out.printf("%-12s %14.1f %16d%n", "linear scan", scanPerTick, (long) (scanPerTick * (lastTime - 1) / 1_000_000));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // The lookup of the camera before it was indexed
+    private static StampedDetectedObject scan(List<StampedDetectedObject> frames, int time) {
+        for (StampedDetectedObject frame : frames) {
+            if (frame.getTime() == time) {
+                for (DetectedObject obj : frame.getDetectedObjects()) {
+                    if ("ERROR".equals(obj.getId())) {
+                        break;
+                    }
+                }
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private static void write(Path file, int frames, int stride) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\"camera1\": [[\n");
+            for (int i = 1; i <= frames; i++) {
+                out.write("{\"time\": " + i * stride + ", \"detectedObjects\": [{\"id\": \"Wall_" + i % 97
+                        + "\", \"description\": \"Wall\"}, {\"id\": \"Chair_" + i % 13 + "\", \"description\": \"Chair\"}]}");
+                out.write(i < frames ? ",\n" : "\n");
+            }
+            out.write("]]}\n");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import bgu.spl.mics.application.objects.CameraDataLoader;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.StampedDetectedObject;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory benchmark of loading a camera data file: writes a file with several
+ * cameras, of which only the first is configured, and loads it either as a
+ * {@link JsonObject} tree walked per camera key, as the runner did before, or with
+ * the streaming {@link CameraDataLoader}. Reports the load time, the peak heap
+ * during the load and the heap still held by the loaded frames afterwards.
+ * <p>
+ * Each loader is measured in a JVM of its own, with a small young generation so
+ * that the peak follows the live data rather than the garbage that waits for a
+ * collection. Not a unit test - run it from the test classpath, e.g.
+ * {@code java -Xmn8m -cp target/classes:target/test-classes:gson.jar CameraLoadBenchmark stream|tree [frames] [cameras]}
+ */
+public class CameraLoadBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        boolean stream = args.length == 0 || args[0].equals("stream");
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int cameras = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        Path file = Files.createTempFile("camera_data", ".json");
+        try {
+            write(file, frames, cameras);
+            long baseline = settledHeap();
+            List<MemoryPoolMXBean> pools = heapPools();
+            pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+            long start = System.nanoTime();
+            Map<String, List<StampedDetectedObject>> loaded = stream
+                    ? CameraDataLoader.load(file.toString(), List.of("camera1"))
+                    : loadTree(file.toString(), List.of("camera1"));
+            long loadNanos = System.nanoTime() - start;
+            long peak = 0;
+            for (MemoryPoolMXBean pool : pools) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+            long retained = settledHeap() - baseline;
+            if (loaded.get("camera1").size() != frames) {
+                throw new IllegalStateException("Loaded " + loaded.get("camera1").size() + " of " + frames + " frames");
+            }
+            System.out.printf("%s loader, %d of %d cameras of %d frames, file %d MB%n",
+                    stream ? "streaming" : "tree", 1, cameras, frames, Files.size(file) >> 20);
+            System.out.printf("load %d ms, peak heap %d MB, retained %d MB%n",
+                    loadNanos / 1_000_000, (peak - baseline) >> 20, retained >> 20);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // The loading of the runner before the streaming loader
+    private static Map<String, List<StampedDetectedObject>> loadTree(String filePath, List<String> cameraKeys) throws IOException {
+        Map<String, List<StampedDetectedObject>> cameras = new HashMap<>();
+        try (FileReader reader = new FileReader(filePath)) {
+            JsonObject cameraData = new Gson().fromJson(reader, JsonObject.class);
+            for (String cameraKey : cameraKeys) {
+                List<StampedDetectedObject> detectedObjectsList = new ArrayList<>();
+                for (JsonElement stampedObjectJson : cameraData.getAsJsonArray(cameraKey)) {
+                    JsonObject stampedObject = stampedObjectJson.getAsJsonObject();
+                    List<DetectedObject> detectedObjects = new ArrayList<>();
+                    for (JsonElement detectedObjectJson : stampedObject.getAsJsonArray("detectedObjects")) {
+                        JsonObject detectedObject = detectedObjectJson.getAsJsonObject();
+                        detectedObjects.add(new DetectedObject(detectedObject.get("id").getAsString(),
+                                detectedObject.get("description").getAsString()));
+                    }
+                    detectedObjectsList.add(new StampedDetectedObject(stampedObject.get("time").getAsInt(), detectedObjects));
+                }
+                cameras.put(cameraKey, detectedObjectsList);
+            }
+        }
+        return cameras;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static long settledHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void write(Path file, int frames, int cameras) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            for (int camera = 1; camera <= cameras; camera++) {
+                out.write("\"camera" + camera + "\": [\n");
+                for (int i = 1; i <= frames; i++) {
+                    out.write("{\"time\": " + i + ", \"detectedObjects\": [{\"id\": \"Wall_" + i % 97
+                            + "\", \"description\": \"Wall\"}, {\"id\": \"Chair_" + i % 13 + "\", \"description\": \"Chair\"}]}");
+                    out.write(i < frames ? ",\n" : "\n");
+                }
+                out.write(camera < cameras ? "],\n" : "]\n");
+            }
+            out.write("}\n");
+        }
+    }
+}
@@ -1,12 +1,17 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import bgu.spl.mics.application.objects.Camera;
+import bgu.spl.mics.application.objects.CameraDataLoader;
 import bgu.spl.mics.application.objects.STATUS;
 import bgu.spl.mics.application.objects.StampedDetectedObject;
 import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.Timeline;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -121,6 +126,60 @@ class CameraTest {
         assertTrue(result.getDetectedObjects().isEmpty(), "The detected objects list should be empty.");
     }
 
+    @Test
+    void testSparseFramesAreFoundByTime() {
+        List<StampedDetectedObject> frames = List.of(
+            new StampedDetectedObject(100_000, List.of(new DetectedObject("ERROR", "Lens cracked"))),
+            new StampedDetectedObject(5, List.of(new DetectedObject("Wall_1", "Wall"))),
+            new StampedDetectedObject(1000, List.of(new DetectedObject("Wall_2", "Wall"))),
+            new StampedDetectedObject(1000, List.of(new DetectedObject("Wall_3", "Wall")))
+        );
+        Camera sparse = new Camera(3, 0, frames, 100_000);
+        assertNull(sparse.getDetectedObjectsAtTime(4), "A tick before the first frame should have none.");
+        assertEquals("Wall_1", sparse.getDetectedObjectsAtTime(5).getDetectedObjects().get(0).getId());
+        assertNull(sparse.getDetectedObjectsAtTime(999), "A tick between frames should have none.");
+        assertEquals("Wall_2", sparse.getDetectedObjectsAtTime(1000).getDetectedObjects().get(0).getId(),
+            "Of two frames with the same time, the first one should count.");
+        assertEquals(STATUS.UP, sparse.getStatus());
+
+        assertNotNull(sparse.getDetectedObjectsAtTime(100_000));
+        assertEquals(STATUS.ERROR, sparse.getStatus(), "The error frame should still be found in a sparse index.");
+        assertEquals("Lens cracked", sparse.getErrMString());
+    }
+
+    @Test
+    void testLoaderReadsOnlyTheConfiguredCameras() throws IOException {
+        String data = "{\"camera1\": [{\"time\": 2, \"detectedObjects\": [{\"id\": \"Wall_1\", \"description\": \"Wall\"}]},"
+            + " {\"time\": 4, \"detectedObjects\": [{\"id\": \"Wall_1\", \"description\": \"Wall\"}]}],"
+            + " \"camera9\": {\"not\": [\"frames\", 1, null]},"
+            + " \"camera2\": [[{\"time\": 1, \"detectedObjects\": []}], [{\"time\": 3, \"extra\": true, \"detectedObjects\": []}]]}";
+        Map<String, List<StampedDetectedObject>> cameras =
+            CameraDataLoader.load(new StringReader(data), List.of("camera1", "camera2", "camera3"));
+        assertEquals(List.of("camera1", "camera2"), List.copyOf(cameras.keySet()), "Keys of no camera, or not in the file, should be left out.");
+
+        List<StampedDetectedObject> camera1Frames = cameras.get("camera1");
+        assertEquals(2, camera1Frames.size());
+        assertEquals(4, camera1Frames.get(1).getTime());
+        assertSame(camera1Frames.get(0).getDetectedObjects().get(0).getId(), camera1Frames.get(1).getDetectedObjects().get(0).getId(),
+            "A repeated id should be kept once.");
+
+        List<StampedDetectedObject> camera2Frames = cameras.get("camera2");
+        assertEquals(2, camera2Frames.size(), "Nested arrays of frames should be joined.");
+        assertEquals(3, camera2Frames.get(1).getTime(), "Unknown fields of a frame should be skipped.");
+        assertThrows(IOException.class, () -> CameraDataLoader.load(new StringReader("{\"camera1\": [{\"time\": \"soon\"}]}"), List.of("camera1")));
+    }
+
+    @Test
+    void testTimelineListsTheDetectionTimesInOrder() {
+        Timeline timeline = camera.getTimeline();
+        assertEquals(3, timeline.size(), "Each detection time should appear once, maxTime included.");
+        assertEquals(8, timeline.next(0), "The first detection should be the first tick with work.");
+        assertEquals(12, timeline.next(8), "Ticks without detections should be skipped.");
+        assertEquals(12, timeline.next(10));
+        assertEquals(13, timeline.next(12));
+        assertEquals(Integer.MAX_VALUE, timeline.next(13), "Nothing should be left after maxTime.");
+    }
+
     @Test
     void testCameraFrequency() {
         assertEquals(5, camera.getFrequency(), "Camera frequency should be initialized correctly.");
@@ -0,0 +1,74 @@
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClockModeTest {
+
+    private static final Path ERROR_INPUT = Paths.get("example_input_with_error");
+
+    @Test
+    void testDiscreteEventRunStopsAtTheCrashTickLikeTheWallClock(@TempDir Path dir) throws Exception {
+        JsonObject wallClock = run(dir.resolve("wall"), "WALL_CLOCK");
+        JsonObject discrete = run(dir.resolve("discrete"), "DISCRETE_EVENT");
+
+        for (JsonObject output : new JsonObject[]{wallClock, discrete}) {
+            JsonObject statistics = output.getAsJsonObject("statistics");
+            assertEquals("camera1", statistics.get("faultySensor").getAsString(), "The error input should crash its camera.");
+            assertEquals(14, statistics.get("systemRuntime").getAsInt(), "The clock should stop at the crash tick.");
+            // the pose of the crash tick races the crash itself, but no later pose may be written
+            for (JsonElement pose : output.getAsJsonArray("poses")) {
+                assertTrue(pose.getAsJsonObject().get("time").getAsInt() <= 14, "No pose should follow the crash tick.");
+            }
+        }
+        assertEquals(wallClock.getAsJsonObject("statistics").get("error"), discrete.getAsJsonObject("statistics").get("error"));
+    }
+
+    // Runs the error input in a JVM of its own, as the simulation's objects are singletons
+    private static JsonObject run(Path dir, String clockMode) throws IOException, InterruptedException {
+        Files.createDirectories(dir);
+        for (String file : new String[]{"camera_data.json", "lidar_data.json", "pose_data.json"}) {
+            Files.copy(ERROR_INPUT.resolve(file), dir.resolve(file));
+        }
+        JsonObject config;
+        try (Reader reader = Files.newBufferedReader(ERROR_INPUT.resolve("configuration_file.json"), StandardCharsets.UTF_8)) {
+            config = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        config.addProperty("ClockMode", clockMode);
+        config.addProperty("TickTime", 0.05); // a short wall-clock tick, still long enough for every tick to settle
+        Path configFile = dir.resolve("configuration_file.json");
+        try (Writer writer = Files.newBufferedWriter(configFile, StandardCharsets.UTF_8)) {
+            writer.write(config.toString());
+        }
+
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "bgu.spl.mics.application.GurionRockRunner", configFile.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("run.log").toFile())
+                .start();
+        if (!process.waitFor(60, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            fail(clockMode + " run did not finish, see " + dir.resolve("run.log"));
+        }
+        File output = dir.resolve("output_file.json").toFile();
+        assertTrue(output.exists(), clockMode + " run wrote no output, see " + dir.resolve("run.log"));
+        try (Reader reader = Files.newBufferedReader(output.toPath(), StandardCharsets.UTF_8)) {
+            JsonElement result = JsonParser.parseReader(reader);
+            return result.getAsJsonObject();
+        }
+    }
+}
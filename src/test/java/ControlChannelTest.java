@@ -0,0 +1,51 @@
+import bgu.spl.mics.application.ControlChannel;
+import bgu.spl.mics.application.services.TimeService;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControlChannelTest {
+
+    @Test
+    void testSpeedCommandsChangeTheClock() throws IOException {
+        TimeService timeService = new TimeService(1, 30);
+        try (ControlChannel channel = new ControlChannel(0, timeService)) {
+            assertEquals("ok speed 0.50x", channel.execute("speed 0.5"));
+            assertEquals(0.5, timeService.getSpeed());
+            assertEquals("ok speed 10.00x", channel.execute("speed 10x"));
+            assertEquals("ok speed unlimited", channel.execute("SPEED unlimited"));
+            assertTrue(Double.isInfinite(timeService.getSpeed()));
+
+            assertTrue(channel.execute("speed 0").startsWith("error"), "A speed of 0 should be rejected.");
+            assertTrue(channel.execute("speed fast").startsWith("error"), "A speed that is not a number should be rejected.");
+            assertTrue(channel.execute("rewind").startsWith("error"));
+            assertTrue(Double.isInfinite(timeService.getSpeed()), "A rejected command should keep the speed.");
+            assertEquals("tick 0 requested unlimited achieved unknown", channel.execute("status"));
+        }
+    }
+
+    @Test
+    void testCommandsAreAnsweredOverTheLoopback() throws IOException {
+        TimeService timeService = new TimeService(1, 30);
+        try (ControlChannel channel = new ControlChannel(0, timeService)) {
+            channel.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), channel.getPort());
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                out.println("speed 2");
+                assertEquals("ok speed 2.00x", in.readLine());
+                out.println("status");
+                assertEquals("tick 0 requested 2.00x achieved unknown", in.readLine());
+            }
+            assertEquals(2.0, timeService.getSpeed());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.CrashedBroadcast;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash-to-shutdown benchmark: a service with a backlog of queued events, like a
+ * LiDAR worker behind many DetectObjectsEvents, receives a crash broadcast. For
+ * each backlog depth it reports the time from sending the broadcast until the
+ * service has terminated, once for {@link CrashedBroadcast}, which takes the
+ * mailbox's control lane, and once for an otherwise identical broadcast that waits
+ * in line behind the backlog.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes ControlLaneBenchmark [depths...]}
+ */
+public class ControlLaneBenchmark {
+
+    private static final long WORK_NANOS = TimeUnit.MICROSECONDS.toNanos(2);
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] depths = {0, 1_000, 10_000, 100_000};
+        if (args.length > 0) {
+            depths = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                depths[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%10s %18s %18s%n", "backlog", "control lane ms", "in line ms");
+        for (int depth : depths) {
+            double control = Double.MAX_VALUE;
+            double inLine = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                control = Math.min(control, run(depth, true));
+                inLine = Math.min(inLine, run(depth, false));
+            }
+            System.out.printf("%10d %18.3f %18.3f%n", depth, control, inLine);
+        }
+    }
+
+    /** Returns the best crash-to-shutdown time in milliseconds. */
+    private static double run(int depth, boolean controlLane) throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        CountDownLatch hold = new CountDownLatch(1);
+        Worker worker = new Worker(hold);
+        Thread thread = new Thread(worker);
+        thread.start();
+        while (bus.getNumberOfSubscribersToEvent(Hold.class) < 1) {
+            Thread.sleep(1);
+        }
+        // the worker waits inside the first event while the backlog builds up behind it
+        bus.sendEvent(new Hold());
+        for (int i = 0; i < depth; i++) {
+            bus.sendEvent(new Work());
+        }
+        long sent = System.nanoTime();
+        bus.sendBroadcast(controlLane ? new CrashedBroadcast("benchmark", "Worker") : new InLineCrash());
+        hold.countDown();
+        thread.join();
+        return (worker.crashedAt - sent) / 1e6;
+    }
+
+    private static class Hold implements Event<Boolean> {
+    }
+
+    private static class Work implements Event<Boolean> {
+    }
+
+    /** Handled like a crash, but queued as an ordinary broadcast. */
+    private static class InLineCrash implements Broadcast {
+    }
+
+    private static class Worker extends MicroService {
+        private final CountDownLatch hold;
+        private volatile long crashedAt;
+
+        Worker(CountDownLatch hold) {
+            super("Worker");
+            this.hold = hold;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeBroadcast(CrashedBroadcast.class, crash -> crashed());
+            subscribeBroadcast(InLineCrash.class, crash -> crashed());
+            subscribeEvent(Work.class, work -> {
+                long end = System.nanoTime() + WORK_NANOS;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+                complete(work, Boolean.TRUE);
+            });
+            subscribeEvent(Hold.class, event -> {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                complete(event, Boolean.TRUE);
+            });
+        }
+
+        private void crashed() {
+            crashedAt = System.nanoTime();
+            terminate();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageTypes;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Callback dispatch benchmark: compares the lookup MicroService used to do, a
+ * {@link ConcurrentHashMap} keyed by the message class, with the dispatch table
+ * indexed by {@link MessageTypes#idOf(Class)}. Messages of {@link #TYPES} types are
+ * dispatched in random order, so the callback call site sees many receivers as it
+ * does in a service subscribed to several message types.
+ * <p>
+ * Every variant runs in JVMs of its own, started by the benchmark in alternating
+ * order, so neither inherits the other's JIT profile. Each fork warms up for
+ * {@link #WARMUP} iterations and then measures {@link #ITERATIONS}. Iterations of one
+ * fork share its JIT decisions, so the fork means are the samples: the benchmark
+ * reports their mean and standard deviation, and the difference of the means with
+ * its 99% confidence interval from a two-sample t-test.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes DispatchBenchmark [forks] [messages]}
+ */
+public class DispatchBenchmark {
+
+    private static final int TYPES = 6;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+    private static final String[] VARIANTS = {"map", "table"};
+    private static final String[] NAMES = {"ConcurrentHashMap lookup", "MessageTypes + array"};
+    // two-sided 99% quantiles of Student's t distribution for 1 to 30 degrees of freedom
+    private static final double[] T_99 = {63.657, 9.925, 5.841, 4.604, 4.032, 3.707, 3.499, 3.355, 3.250, 3.169,
+            3.106, 3.055, 3.012, 2.977, 2.947, 2.921, 2.898, 2.878, 2.861, 2.845,
+            2.831, 2.819, 2.807, 2.797, 2.787, 2.779, 2.771, 2.763, 2.756, 2.750};
+
+    private static final long[] counters = new long[TYPES];
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 2 && args[0].equals("--fork")) {
+            runFork(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        int forks = Math.max(2, args.length > 0 ? Integer.parseInt(args[0]) : 10);
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        List<List<Double>> samples = new ArrayList<>();
+        for (int v = 0; v < VARIANTS.length; v++) {
+            samples.add(new ArrayList<>());
+        }
+        for (int fork = 0; fork < forks; fork++) {
+            for (int i = 0; i < VARIANTS.length; i++) {
+                int v = (fork + i) % VARIANTS.length; // alternate which variant goes first
+                samples.get(v).add(fork(VARIANTS[v], messages).stream().mapToDouble(Double::doubleValue).average().orElseThrow());
+            }
+        }
+        double[] mean = new double[VARIANTS.length];
+        double[] variance = new double[VARIANTS.length];
+        for (int v = 0; v < VARIANTS.length; v++) {
+            List<Double> s = samples.get(v);
+            mean[v] = s.stream().mapToDouble(Double::doubleValue).average().orElse(Double.NaN);
+            double m = mean[v];
+            variance[v] = s.stream().mapToDouble(x -> (x - m) * (x - m)).sum() / (s.size() - 1);
+            System.out.printf("%-26s %8.3f +- %.3f ns/message over %d forks%n", NAMES[v], mean[v], Math.sqrt(variance[v]), forks);
+        }
+        int degrees = 2 * forks - 2;
+        double t = degrees <= T_99.length ? T_99[degrees - 1] : 2.576;
+        double difference = mean[0] - mean[1];
+        double interval = t * Math.sqrt((variance[0] + variance[1]) / forks);
+        System.out.printf("map - table: %.3f ns/message, 99%% confidence interval +- %.3f: %s%n", difference, interval,
+                Math.abs(difference) > interval ? "significant" : "not significant");
+    }
+
+    /** Runs one variant in a new JVM and returns its measured iterations. */
+    private static List<Double> fork(String variant, int messages) throws Exception {
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), DispatchBenchmark.class.getName(),
+                "--fork", variant, String.valueOf(messages))
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<Double> measured = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                measured.add(Double.parseDouble(line));
+            }
+        }
+        if (process.waitFor() != 0 || measured.size() != ITERATIONS) {
+            throw new IllegalStateException("Fork of " + variant + " failed");
+        }
+        return measured;
+    }
+
+    /** Warms up and measures one variant, printing the ns/message of every measured iteration. */
+    private static void runFork(String variant, int messages) {
+        Message[] prototypes = {new M0(), new M1(), new M2(), new M3(), new M4(), new M5()};
+        Map<Class<? extends Message>, Callback<?>> map = new ConcurrentHashMap<>();
+        Callback<?>[] table = new Callback<?>[0];
+        for (int i = 0; i < TYPES; i++) {
+            int index = i;
+            Callback<Message> callback = m -> counters[index]++;
+            Class<? extends Message> type = prototypes[i].getClass();
+            map.put(type, callback);
+            int id = MessageTypes.idOf(type);
+            if (id >= table.length) {
+                table = Arrays.copyOf(table, id + 1);
+            }
+            table[id] = callback;
+        }
+        Random random = new Random(42);
+        Message[] stream = new Message[4096];
+        for (int i = 0; i < stream.length; i++) {
+            stream[i] = prototypes[random.nextInt(TYPES)];
+        }
+
+        boolean byMap = variant.equals("map");
+        for (int iteration = 0; iteration < WARMUP + ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            if (byMap) {
+                dispatchByMap(map, stream, messages);
+            } else {
+                dispatchByTable(table, stream, messages);
+            }
+            long nanos = System.nanoTime() - start;
+            if (iteration >= WARMUP) {
+                System.out.println((double) nanos / messages);
+            }
+        }
+        System.err.println("(" + variant + " checksum " + Arrays.stream(counters).sum() + ")");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void dispatchByMap(Map<Class<? extends Message>, Callback<?>> map, Message[] stream, int messages) {
+        for (int i = 0; i < messages; i++) {
+            Message message = stream[i & (stream.length - 1)];
+            Callback<Message> callback = (Callback<Message>) map.get(message.getClass());
+            callback.call(message);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void dispatchByTable(Callback<?>[] table, Message[] stream, int messages) {
+        for (int i = 0; i < messages; i++) {
+            Message message = stream[i & (stream.length - 1)];
+            int id = MessageTypes.idOf(message.getClass());
+            Callback<Message> callback = id < table.length ? (Callback<Message>) table[id] : null;
+            if (callback != null) {
+                callback.call(message);
+            }
+        }
+    }
+
+    private static class M0 implements Message { }
+    private static class M1 implements Message { }
+    private static class M2 implements Message { }
+    private static class M3 implements Message { }
+    private static class M4 implements Message { }
+    private static class M5 implements Message { }
+}
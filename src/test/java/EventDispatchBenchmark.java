@@ -0,0 +1,219 @@
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.example.messages.ExampleEvent;
+import bgu.spl.mics.example.services.ExampleEventHandlerService;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark for event dispatch: measures sendEvent throughput with
+ * 1 to 64 concurrent senders against the lock-free routing table of
+ * {@link MessageBusImpl} and against the previous implementation, which took the
+ * monitor of a shared LinkedList on every send.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes EventDispatchBenchmark [millisPerRun]}
+ */
+public class EventDispatchBenchmark {
+
+    private static final int HANDLERS = 8;
+    private static final int[] SENDERS = {1, 2, 4, 8, 16, 32, 64};
+
+    interface Dispatcher {
+        void register(MicroService m);
+        void subscribe(MicroService m);
+        Future<String> send(Event<String> e);
+        Message take(MicroService m) throws InterruptedException;
+        void complete(MicroService m, Event<String> e);
+        void unregister(MicroService m);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        System.out.printf("%8s %18s %18s%n", "senders", "legacy ops/s", "lock-free ops/s");
+        for (int senders : SENDERS) {
+            double legacy = run(new LegacyDispatcher(), senders, millis);
+            double lockFree = run(new BusDispatcher(), senders, millis);
+            System.out.printf("%8d %18.0f %18.0f%n", senders, legacy, lockFree);
+        }
+    }
+
+    private static double run(Dispatcher dispatcher, int senders, long millis) throws InterruptedException {
+        List<MicroService> handlers = new ArrayList<>();
+        for (int i = 0; i < HANDLERS; i++) {
+            MicroService handler = new ExampleEventHandlerService("BenchHandler" + i, new String[]{"1"});
+            dispatcher.register(handler);
+            dispatcher.subscribe(handler);
+            handlers.add(handler);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder sent = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (MicroService handler : handlers) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        Message message = dispatcher.take(handler);
+                        if (message instanceof PoisonPill) {
+                            return;
+                        }
+                        @SuppressWarnings("unchecked")
+                        Event<String> event = (Event<String>) message;
+                        dispatcher.complete(handler, event);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> senderThreads = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            senderThreads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (running.get()) {
+                    dispatcher.send(new ExampleEvent("bench"));
+                    sent.increment();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        senderThreads.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread t : senderThreads) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        // round-robin hands exactly one pill to every handler
+        for (int i = 0; i < HANDLERS; i++) {
+            dispatcher.send(new PoisonPill());
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        handlers.forEach(dispatcher::unregister);
+        return sent.sum() / seconds;
+    }
+
+    /** Stops a handler thread once every event sent before it was consumed. */
+    private static class PoisonPill implements Event<String> {
+    }
+
+    private static class BusDispatcher implements Dispatcher {
+        private final MessageBusImpl bus = MessageBusImpl.getInstance();
+
+        public void register(MicroService m) {
+            bus.register(m);
+        }
+
+        public void subscribe(MicroService m) {
+            bus.subscribeEvent(ExampleEvent.class, m);
+            bus.subscribeEvent(PoisonPill.class, m);
+        }
+
+        public Future<String> send(Event<String> e) {
+            return bus.sendEvent(e);
+        }
+
+        public Message take(MicroService m) throws InterruptedException {
+            return bus.awaitMessage(m);
+        }
+
+        public void complete(MicroService m, Event<String> e) {
+            bus.complete(m, e, "done");
+        }
+
+        public void unregister(MicroService m) {
+            bus.unregister(m);
+        }
+    }
+
+    /** The routing path of the previous MessageBusImpl, kept here as the baseline. */
+    private static class LegacyDispatcher implements Dispatcher {
+        private final Map<Class<?>, Queue<MicroService>> eventSubscribers = new ConcurrentHashMap<>();
+        private final Map<Event<?>, Future<?>> eventFutures = new ConcurrentHashMap<>();
+        private final Map<MicroService, BlockingQueue<Message>> queues = new ConcurrentHashMap<>();
+
+        public void register(MicroService m) {
+            queues.putIfAbsent(m, new LinkedBlockingQueue<>());
+        }
+
+        public void subscribe(MicroService m) {
+            for (Class<?> type : new Class<?>[]{ExampleEvent.class, PoisonPill.class}) {
+                eventSubscribers.putIfAbsent(type, new LinkedList<>());
+                Queue<MicroService> subscribers = eventSubscribers.get(type);
+                synchronized (subscribers) {
+                    if (!subscribers.contains(m)) {
+                        subscribers.add(m);
+                    }
+                }
+            }
+        }
+
+        public Future<String> send(Event<String> e) {
+            Queue<MicroService> subscribers = eventSubscribers.get(e.getClass());
+            if (subscribers == null || subscribers.isEmpty()) {
+                return null;
+            }
+            MicroService selected;
+            synchronized (subscribers) {
+                selected = subscribers.poll();
+                if (selected != null) {
+                    subscribers.add(selected);
+                }
+            }
+            if (selected == null || !queues.containsKey(selected)) {
+                return null;
+            }
+            Future<String> future = new Future<>();
+            eventFutures.putIfAbsent(e, future);
+            try {
+                queues.get(selected).put(e);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return future;
+        }
+
+        public Message take(MicroService m) throws InterruptedException {
+            return queues.get(m).take();
+        }
+
+        @SuppressWarnings("unchecked")
+        public void complete(MicroService m, Event<String> e) {
+            Future<String> future = (Future<String>) eventFutures.remove(e);
+            if (future != null) {
+                future.resolve("done");
+            }
+        }
+
+        public void unregister(MicroService m) {
+            queues.remove(m);
+            for (Queue<MicroService> subscribers : eventSubscribers.values()) {
+                synchronized (subscribers) {
+                    subscribers.remove(m);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.FutureGroup;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.example.services.ExampleEventHandlerService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch-sending benchmark with large camera frames: every frame holds
+ * {@link #OBJECTS_PER_FRAME} detected objects, each sent as one event to a pool of
+ * LiDAR-like workers that complete it at once. Compares sending a frame with one
+ * sendEvent call per object to sending it with a single sendEvents call, and reports
+ * the time spent sending per object and the time until a whole frame is completed.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes FrameBatchBenchmark [frames]}
+ */
+public class FrameBatchBenchmark {
+
+    private static final int OBJECTS_PER_FRAME = 1000;
+    private static final int WORKERS = 4;
+
+    public static void main(String[] args) throws InterruptedException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        System.out.printf("%-12s %8s %16s %16s%n", "api", "frames", "send ns/object", "frame us");
+        for (int round = 0; round < 3; round++) { // the first rounds warm up
+            run(false, frames, round == 2);
+            run(true, frames, round == 2);
+        }
+    }
+
+    private static void run(boolean batched, int frames, boolean print) throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        List<MicroService> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            MicroService worker = new ExampleEventHandlerService("FrameWorker" + i, new String[]{"1"});
+            bus.register(worker);
+            bus.subscribeEvent(DetectedObject.class, worker);
+            bus.subscribeEvent(EndOfFrames.class, worker);
+            workers.add(worker);
+            threads.add(new Thread(() -> work(bus, worker)));
+        }
+        threads.forEach(Thread::start);
+
+        long sendNanos = 0;
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            List<DetectedObject> objects = new ArrayList<>(OBJECTS_PER_FRAME);
+            for (int i = 0; i < OBJECTS_PER_FRAME; i++) {
+                objects.add(new DetectedObject());
+            }
+            long sending = System.nanoTime();
+            if (batched) {
+                FutureGroup<Boolean> group = bus.sendEvents(objects);
+                sendNanos += System.nanoTime() - sending;
+                group.all().get();
+            } else {
+                List<Future<Boolean>> futures = new ArrayList<>(OBJECTS_PER_FRAME);
+                for (DetectedObject object : objects) {
+                    futures.add(bus.sendEvent(object));
+                }
+                sendNanos += System.nanoTime() - sending;
+                for (Future<Boolean> future : futures) {
+                    future.get();
+                }
+            }
+        }
+        long total = System.nanoTime() - start;
+
+        for (int i = 0; i < WORKERS; i++) {
+            bus.sendEvent(new EndOfFrames()); // round-robin hands one to every worker
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        workers.forEach(bus::unregister);
+        if (print) {
+            System.out.printf("%-12s %8d %16.1f %16.1f%n", batched ? "sendEvents" : "sendEvent", frames,
+                    (double) sendNanos / frames / OBJECTS_PER_FRAME, total / 1e3 / frames);
+        }
+    }
+
+    private static void work(MessageBusImpl bus, MicroService worker) {
+        List<Message> batch = new ArrayList<>();
+        try {
+            while (true) {
+                bus.awaitMessages(worker, batch, 64);
+                for (Message message : batch) {
+                    if (message instanceof EndOfFrames) {
+                        return;
+                    }
+                    bus.complete(worker, (DetectedObject) message, Boolean.TRUE);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class DetectedObject implements Event<Boolean> {
+    }
+
+    private static class EndOfFrames implements Event<Boolean> {
+    }
+}
@@ -3,6 +3,7 @@ import bgu.spl.mics.Future;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.*;
 
@@ -134,6 +135,48 @@ public class FutureTest {
         assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS), "Executor should terminate properly.");
     }
 
+    @Test
+    public void testOnCompleteRunsCallbacksInOrder() {
+        Future<String> future = new Future<>();
+        List<String> calls = new ArrayList<>();
+        future.onComplete(result -> calls.add("first " + result));
+        future.onComplete(result -> calls.add("second " + result));
+        assertTrue(calls.isEmpty(), "Callbacks should not run before the future is resolved.");
+
+        future.resolve("done");
+        future.onComplete(result -> calls.add("late " + result));
+
+        assertEquals(Arrays.asList("first done", "second done", "late done"), calls,
+                "Callbacks should run once, in registration order, also when registered after resolve.");
+    }
+
+    @Test
+    public void testAllOfAndAnyOf() {
+        Future<Integer> first = new Future<>();
+        Future<Integer> second = new Future<>();
+        Future<List<Integer>> all = Future.allOf(Arrays.asList(first, second));
+        Future<Integer> any = Future.anyOf(Arrays.asList(first, second));
+
+        second.resolve(2);
+        assertEquals(2, any.get(), "anyOf should take the first result.");
+        assertFalse(all.isDone(), "allOf should wait for every future.");
+        first.resolve(1);
+        assertEquals(Arrays.asList(1, 2), all.get(100, TimeUnit.MILLISECONDS), "allOf should keep the order of its futures.");
+        assertTrue(Future.allOf(new ArrayList<Future<Integer>>()).isDone(), "allOf of nothing is resolved at once.");
+    }
+
+    @Test
+    public void testGetKeepsInterruptStatus() {
+        Future<String> future = new Future<>();
+        Thread.currentThread().interrupt();
+        assertNull(future.get(50, TimeUnit.MILLISECONDS), "An interrupt should not end the wait early with a result.");
+        assertTrue(Thread.interrupted(), "The interrupt status should be restored.");
+
+        future.resolve(null);
+        assertTrue(future.isDone(), "A future resolved with null should be done.");
+        assertNull(future.get());
+    }
+
 
 
 
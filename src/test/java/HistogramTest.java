@@ -0,0 +1,39 @@
+import bgu.spl.mics.Histogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void testPercentilesStayWithinTheBucketWidth() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMax());
+        for (double percentile : new double[]{50, 90, 99}) {
+            long exact = (long) (percentile * 100) * 1000;
+            long estimate = histogram.getPercentile(percentile);
+            assertTrue(estimate <= exact && estimate > exact * 3 / 4,
+                "p" + percentile + " should be within a quarter below " + exact + ", was " + estimate);
+        }
+        assertEquals(10_000_000, histogram.getPercentile(100), "p100 should be the largest value.");
+    }
+
+    @Test
+    void testBucketsAreKeyedByTheirLowestValue() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5); // counts as 0
+        histogram.record(3);
+        histogram.record(8);
+        histogram.record(9);
+        histogram.record(10);
+        Map<Long, Long> buckets = histogram.getBuckets();
+        assertEquals(Map.of(0L, 1L, 3L, 1L, 8L, 2L, 10L, 1L), buckets, "8 and 9 should share a bucket, 10 starts the next.");
+        assertEquals(0, new Histogram().getPercentile(99), "An empty histogram should report 0.");
+    }
+}
@@ -0,0 +1,96 @@
+import bgu.spl.mics.Log;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogTest {
+
+    private ByteArrayOutputStream written;
+
+    @BeforeEach
+    void setup() {
+        written = new ByteArrayOutputStream();
+        Log.setOutput(new PrintStream(written, false, StandardCharsets.UTF_8));
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @AfterEach
+    void restore() {
+        Log.setOutput(new PrintStream(new FileOutputStream(FileDescriptor.out), false));
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    private String output() {
+        Log.flush();
+        return written.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testPlaceholdersAreFilledInOrder() {
+        Log.info("{}: got a tick, {} and my status is: {}", "Camera1", 7, "UP");
+        Log.info("no placeholders for {}");
+        Log.info("{} and {}", "only one");
+        assertEquals(String.join(System.lineSeparator(),
+            "Camera1: got a tick, 7 and my status is: UP", "no placeholders for {}", "only one and {}", ""), output());
+    }
+
+    @Test
+    void testRecordsBelowTheLevelAreSkipped() {
+        assertFalse(Log.isDebugEnabled());
+        Log.debug("hidden {}", 1);
+        Log.info("shown {}", 2);
+        Log.setLevel(Log.Level.WARN);
+        assertFalse(Log.isEnabled(Log.Level.INFO));
+        Log.info("hidden {}", 3);
+        Log.warn("shown {}", 4);
+        Log.setLevel(Log.Level.OFF);
+        Log.error("hidden {}", 5);
+        assertEquals("shown 2" + System.lineSeparator() + "shown 4" + System.lineSeparator(), output());
+    }
+
+    @Test
+    void testTrailingThrowableIsWrittenWithItsStackTrace() {
+        Log.error("Could not write {}", "output.json", new IllegalStateException("disk full"));
+        String text = output();
+        assertTrue(text.startsWith("Could not write output.json" + System.lineSeparator()), text);
+        assertTrue(text.contains("java.lang.IllegalStateException: disk full"), text);
+    }
+
+    @Test
+    void testConcurrentWritersLoseNoWarnings() throws InterruptedException {
+        int writers = 4;
+        int perWriter = 10_000; // more than the ring holds, so writers wait for room
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    Log.warn("{} {}", writer, i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        String[] lines = output().split(System.lineSeparator());
+        assertEquals(writers * perWriter, lines.length, "Every warning should be written.");
+        int[] next = new int[writers];
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            int writer = Integer.parseInt(parts[0]);
+            assertEquals(next[writer]++, Integer.parseInt(parts[1]), "Each writer's records should keep their order.");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import bgu.spl.mics.Mailbox;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.OverflowPolicy;
+import bgu.spl.mics.example.messages.ExampleBroadcast;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Mailbox benchmark: compares the lock-free single-consumer {@link Mailbox} with the
+ * {@link LinkedBlockingQueue} it replaced. For 1 to 16 senders feeding one consumer
+ * it reports the mean enqueue latency seen by a sender, the mean dequeue latency
+ * seen by the consumer, and the bytes allocated per message by all threads involved.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes MailboxBenchmark [messagesPerSender]}
+ */
+public class MailboxBenchmark {
+
+    private static final int[] SENDERS = {1, 2, 4, 8, 16};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final Message MESSAGE = new ExampleBroadcast("bench");
+
+    interface Queue {
+        void put(Message m) throws InterruptedException;
+        Message take() throws InterruptedException;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int perSender = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(blockingQueue(), 4, perSender / 10);
+            run(mailbox(), 4, perSender / 10);
+        }
+        System.out.printf("%8s %-16s %14s %14s %14s%n", "senders", "queue", "put ns/op", "take ns/op", "bytes/msg");
+        for (int senders : SENDERS) {
+            print(senders, "LinkedBlocking", run(blockingQueue(), senders, perSender));
+            print(senders, "Mailbox", run(mailbox(), senders, perSender));
+        }
+    }
+
+    private static void print(int senders, String name, double[] result) {
+        System.out.printf("%8d %-16s %14.1f %14.1f %14.1f%n", senders, name, result[0], result[1], result[2]);
+    }
+
+    private static Queue blockingQueue() {
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        return new Queue() {
+            public void put(Message m) throws InterruptedException {
+                queue.put(m);
+            }
+
+            public Message take() throws InterruptedException {
+                return queue.take();
+            }
+        };
+    }
+
+    private static Queue mailbox() {
+        Mailbox mailbox = Mailbox.create(Integer.MAX_VALUE, OverflowPolicy.BLOCK, null);
+        return new Queue() {
+            public void put(Message m) throws InterruptedException {
+                mailbox.put(m);
+            }
+
+            public Message take() throws InterruptedException {
+                return mailbox.take();
+            }
+        };
+    }
+
+    /** Returns {put ns/op, take ns/op, allocated bytes per message}. */
+    private static double[] run(Queue queue, int senders, int perSender) throws InterruptedException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = (long) senders * perSender;
+        long[] putNanos = new long[senders];
+        long[] allocated = new long[senders + 1];
+        long[] takeNanos = new long[1];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> all = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            int id = i;
+            all.add(new Thread(() -> {
+                try {
+                    start.await();
+                    long before = threads.getCurrentThreadAllocatedBytes();
+                    long begin = System.nanoTime();
+                    for (int n = 0; n < perSender; n++) {
+                        queue.put(MESSAGE);
+                    }
+                    putNanos[id] = System.nanoTime() - begin;
+                    allocated[id] = threads.getCurrentThreadAllocatedBytes() - before;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        all.add(new Thread(() -> {
+            try {
+                start.await();
+                long before = threads.getCurrentThreadAllocatedBytes();
+                long begin = System.nanoTime();
+                for (long n = 0; n < total; n++) {
+                    queue.take();
+                }
+                takeNanos[0] = System.nanoTime() - begin;
+                allocated[senders] = threads.getCurrentThreadAllocatedBytes() - before;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        all.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : all) {
+            t.join();
+        }
+        long putSum = 0;
+        for (long nanos : putNanos) {
+            putSum += nanos;
+        }
+        long allocatedSum = 0;
+        for (long bytes : allocated) {
+            allocatedSum += bytes;
+        }
+        return new double[]{(double) putSum / total, (double) takeNanos[0] / total, (double) allocatedSum / total};
+    }
+}
@@ -0,0 +1,142 @@
+import bgu.spl.mics.Future;
+import bgu.spl.mics.MappedRing;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.RingBridge;
+import bgu.spl.mics.application.messages.DetectObjectsEvent;
+import bgu.spl.mics.application.messages.SensorMessageCodec;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.StampedDetectedObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedRingTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRecordsArriveInOrderAcrossTheWrap() throws IOException, InterruptedException {
+        try (MappedRing producerSide = MappedRing.create(dir.resolve("ring"), 256);
+             MappedRing consumerSide = MappedRing.open(dir.resolve("ring"), 256)) {
+            int records = 10_000;
+            Thread producer = new Thread(() -> {
+                ByteBuffer record = ByteBuffer.allocate(64);
+                for (int i = 0; i < records; i++) {
+                    record.clear();
+                    for (int j = 0; j <= i % 13; j++) { // records of varying length, so the ring wraps at every offset
+                        record.putInt(i);
+                    }
+                    record.flip();
+                    producerSide.put(record);
+                }
+            });
+            producer.start();
+
+            ByteBuffer into = ByteBuffer.allocate(consumerSide.getMaxRecordSize());
+            for (int i = 0; i < records; i++) {
+                assertTrue(consumerSide.poll(into, 5, TimeUnit.SECONDS), "Record " + i + " should arrive.");
+                assertEquals(4 * (i % 13 + 1), into.remaining(), "The record should keep its length.");
+                while (into.hasRemaining()) {
+                    assertEquals(i, into.getInt(), "Records should arrive whole and in order.");
+                }
+            }
+            producer.join();
+            assertFalse(consumerSide.poll(into), "No record should be left.");
+        }
+    }
+
+    @Test
+    void testOfferFailsWhenTheRingIsFull() throws IOException {
+        try (MappedRing ring = MappedRing.create(dir.resolve("full"), 64)) {
+            ByteBuffer record = ByteBuffer.allocate(ring.getMaxRecordSize());
+            assertTrue(ring.offer(record), "The first record should fit.");
+            record.clear();
+            assertTrue(ring.offer(record), "Two records of the largest size should fit.");
+            record.clear();
+            assertFalse(ring.offer(record), "A record should not overwrite one that was not read.");
+            assertThrows(IllegalArgumentException.class, () -> ring.offer(ByteBuffer.allocate(64)),
+                "A record larger than half the ring should be rejected.");
+
+            ByteBuffer into = ByteBuffer.allocate(ring.getMaxRecordSize());
+            assertTrue(ring.poll(into));
+            record.clear();
+            assertTrue(ring.offer(record), "Reading a record should make room for the next.");
+        }
+    }
+
+    @Test
+    void testCreateDropsTheRingOfAnEarlierRun() throws IOException {
+        Path file = dir.resolve("stale");
+        try (MappedRing earlier = MappedRing.create(file, 256)) {
+            assertTrue(earlier.offer(ByteBuffer.allocate(16)));
+        }
+        try (MappedRing producerSide = MappedRing.create(file, 256);
+             MappedRing consumerSide = MappedRing.open(file, 256)) {
+            ByteBuffer into = ByteBuffer.allocate(consumerSide.getMaxRecordSize());
+            assertFalse(consumerSide.poll(into), "A new ring should not hold the records of the earlier one.");
+            ByteBuffer record = ByteBuffer.allocate(8);
+            record.putLong(42).flip();
+            assertTrue(producerSide.offer(record));
+            assertTrue(consumerSide.poll(into));
+            assertEquals(42, into.getLong(), "The new ring should start at its first record.");
+        }
+    }
+
+    @Test
+    void testOpenRejectsAFileThatIsNotARingOfTheCapacity() throws IOException {
+        Path file = dir.resolve("other");
+        Files.write(file, new byte[1024]);
+        assertThrows(IOException.class, () -> MappedRing.open(file, 256), "A file never created as a ring should be rejected.");
+        MappedRing.create(file, 256).close();
+        assertThrows(IOException.class, () -> MappedRing.open(file, 128), "A ring of another capacity should be rejected.");
+        MappedRing.open(file, 256).close();
+    }
+
+    @Test
+    void testClosingTheBridgeCompletesTheEventsWaitingForTheOtherSide() throws Exception {
+        RingBridge bridge = new RingBridge("Unanswered", MappedRing.create(dir.resolve("out"), 1024),
+            MappedRing.create(dir.resolve("in"), 1024), new SensorMessageCodec());
+        bridge.exportEvent(DetectObjectsEvent.class);
+        bridge.start();
+        Future<?> future = MessageBusImpl.getInstance().sendEvent(new DetectObjectsEvent(
+            new StampedDetectedObject(1, List.of(new DetectedObject("Wall_1", "Wall"))), "Camera1", 3));
+        assertNotNull(future, "The bridge should take the event.");
+        try (MappedRing otherSide = MappedRing.open(dir.resolve("out"), 1024)) {
+            // הצד השני מקבל את האירוע אך לעולם לא עונה
+            assertTrue(otherSide.poll(ByteBuffer.allocate(otherSide.getMaxRecordSize()), 5, TimeUnit.SECONDS),
+                "The event should be forwarded.");
+        }
+        bridge.close();
+        future.get(5, TimeUnit.SECONDS);
+        assertTrue(future.isDone(), "Closing the bridge should complete an event that waits for a result.");
+        assertNull(future.get(), "An event without a result should be completed with null.");
+    }
+
+    @Test
+    void testSensorMessagesSurviveTheEncoding() {
+        SensorMessageCodec codec = new SensorMessageCodec();
+        DetectObjectsEvent event = new DetectObjectsEvent(new StampedDetectedObject(4,
+            List.of(new DetectedObject("Wall_1", "Wall"), new DetectedObject("Chair_Base_1", "Chair Base"))), "Camera1", 6);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        codec.encode(event, buffer);
+        buffer.flip();
+
+        DetectObjectsEvent decoded = (DetectObjectsEvent) codec.decode(buffer);
+        assertFalse(buffer.hasRemaining(), "The whole encoding should be read back.");
+        assertEquals("Camera1", decoded.getSenderName());
+        assertEquals(6, decoded.getSendTime());
+        assertEquals(4, decoded.getStampedDetectedObjects().getTime());
+        assertEquals(2, decoded.getStampedDetectedObjects().getDetectedObjects().size());
+        assertEquals("Chair Base", decoded.getStampedDetectedObjects().getDetectedObjects().get(1).getDescription());
+        assertEquals(event.getRoutingKey(), decoded.getRoutingKey(), "A decoded event should be routed like the original.");
+    }
+}
@@ -15,8 +15,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class MessageBusImplTest {
 
@@ -129,6 +133,239 @@ class MessageBusImplTest {
     }
     
 
+    @Test
+    void testSendBroadcastWithoutSubscribers() {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        MicroService listener = new ExampleBroadcastListenerService("Listener", new String[]{"5"});
+        messageBus.register(listener);
+        messageBus.subscribeBroadcast(ExampleBroadcast.class, listener);
+        messageBus.unregister(listener);
+
+        // The last subscriber is gone, so the broadcast has nobody to reach
+        assertEquals(0, messageBus.getNumberOfSubscribersToBroad(ExampleBroadcast.class),
+            "Expected: no subscribers left after unregister.");
+        assertDoesNotThrow(() -> messageBus.sendBroadcast(new ExampleBroadcast("Nobody")),
+            "Sending a broadcast without subscribers should not throw.");
+    }
+
+    @Test
+    void testBoundedMailboxOverflowPolicies() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        messageBus.configureMailbox("DropOldest", 2, OverflowPolicy.DROP_OLDEST, null);
+        messageBus.configureMailbox("DropNewest", 2, OverflowPolicy.DROP_NEWEST, null);
+        MicroService dropOldest = new ExampleBroadcastListenerService("DropOldest", new String[]{"5"});
+        MicroService dropNewest = new ExampleBroadcastListenerService("DropNewest", new String[]{"5"});
+        messageBus.register(dropOldest);
+        messageBus.register(dropNewest);
+        messageBus.subscribeBroadcast(ExampleBroadcast.class, dropOldest);
+        messageBus.subscribeBroadcast(ExampleBroadcast.class, dropNewest);
+
+        for (int i = 1; i <= 3; i++) {
+            messageBus.sendBroadcast(new ExampleBroadcast("Message " + i));
+        }
+
+        assertEquals(2, messageBus.getQueueSize(dropOldest), "A bounded mailbox should never exceed its capacity.");
+        assertEquals(1, messageBus.getMailbox(dropOldest).getDroppedMessages(), "One message should have been dropped.");
+        assertEquals("Message 2", ((ExampleBroadcast) messageBus.awaitMessage(dropOldest)).getSenderId(),
+            "DROP_OLDEST should discard the first message.");
+        assertEquals(1, messageBus.getMailbox(dropNewest).getDroppedMessages(), "One message should have been dropped.");
+        assertEquals("Message 1", ((ExampleBroadcast) messageBus.awaitMessage(dropNewest)).getSenderId(),
+            "DROP_NEWEST should keep the first message.");
+        assertEquals("Message 2", ((ExampleBroadcast) messageBus.awaitMessage(dropNewest)).getSenderId(),
+            "DROP_NEWEST should keep the second message.");
+
+        messageBus.unregister(dropOldest);
+        messageBus.unregister(dropNewest);
+    }
+
+    @Test
+    void testCoalesceDropsTheSupersededMessage() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        messageBus.configureMailbox("Coalesce", 2, OverflowPolicy.COALESCE, Message.class);
+        MicroService coalesce = new ExampleBroadcastListenerService("Coalesce", new String[]{"5"});
+        messageBus.register(coalesce);
+        messageBus.subscribeEvent(ExampleEvent.class, coalesce);
+        messageBus.subscribeBroadcast(ExampleBroadcast.class, coalesce);
+
+        messageBus.sendEvent(new ExampleEvent("First"));
+        messageBus.sendEvent(new ExampleEvent("Second"));
+        messageBus.sendBroadcast(new ExampleBroadcast("Latest")); // supersedes the first event
+
+        Mailbox mailbox = messageBus.getMailbox(coalesce);
+        assertEquals(1, mailbox.getDroppedMessages(), "One message should have been dropped.");
+        // the dropped message is the superseded event, not the arriving broadcast
+        assertEquals(1, mailbox.getUnfinishedEvents(), "Only the second event should be left unfinished.");
+        assertEquals("Second", ((ExampleEvent) messageBus.awaitMessage(coalesce)).getSenderName(),
+            "COALESCE should discard the oldest message.");
+
+        messageBus.unregister(coalesce);
+    }
+
+    @Test
+    void testMailboxConcurrentSendersKeepPerSenderOrder() throws InterruptedException {
+        Mailbox mailbox = Mailbox.create(Integer.MAX_VALUE, OverflowPolicy.BLOCK, null);
+        int senders = 4;
+        int perSender = 5000; // spans many chunks of the lock-free queue
+        ExecutorService executor = Executors.newFixedThreadPool(senders);
+        for (int s = 0; s < senders; s++) {
+            String sender = "S" + s;
+            executor.submit(() -> {
+                for (int i = 0; i < perSender; i++) {
+                    mailbox.put(new ExampleBroadcast(sender + ":" + i));
+                }
+                return null;
+            });
+        }
+
+        int[] next = new int[senders];
+        for (int n = 0; n < senders * perSender; n++) {
+            String[] parts = ((ExampleBroadcast) mailbox.take()).getSenderId().split(":");
+            int sender = Integer.parseInt(parts[0].substring(1));
+            assertEquals(next[sender]++, Integer.parseInt(parts[1]), "Messages of one sender must arrive in order.");
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, mailbox.size(), "Every message should have been taken exactly once.");
+    }
+
+    @Test
+    void testControlMessagesSkipTheQueue() throws InterruptedException {
+        for (OverflowPolicy policy : new OverflowPolicy[]{OverflowPolicy.BLOCK, OverflowPolicy.DROP_OLDEST}) {
+            Mailbox mailbox = Mailbox.create(3, policy, null);
+            for (int i = 1; i <= 3; i++) {
+                mailbox.put(new ExampleBroadcast("Message " + i));
+            }
+            mailbox.put(new UrgentBroadcast()); // the mailbox is full, but control messages are never dropped
+            assertEquals(4, mailbox.size(), "The control message should be counted as queued.");
+            assertTrue(mailbox.take() instanceof UrgentBroadcast, "The control message should be taken first.");
+            assertEquals("Message 1", ((ExampleBroadcast) mailbox.take()).getSenderId(),
+                "The data lane should keep its order.");
+
+            // a consumer waiting on an empty mailbox is woken by a control message
+            Mailbox empty = Mailbox.create(3, policy, null);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            java.util.concurrent.Future<Message> taken = executor.submit(empty::take);
+            Thread.sleep(50);
+            empty.put(new UrgentBroadcast());
+            assertTrue(assertDoesNotThrow(() -> taken.get(5, TimeUnit.SECONDS)) instanceof UrgentBroadcast,
+                "A waiting consumer should receive the control message.");
+            assertEquals(0, empty.size(), "No wake-up token should be left behind.");
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testControlMessageTakesNoRoomInTheDataLane() throws InterruptedException {
+        for (OverflowPolicy policy : new OverflowPolicy[]{OverflowPolicy.DROP_OLDEST, OverflowPolicy.COALESCE}) {
+            Mailbox mailbox = Mailbox.create(1, policy, ExampleBroadcast.class);
+            mailbox.put(new UrgentBroadcast());
+            assertEquals(1, mailbox.size(), "Only the control message should be counted as queued.");
+
+            // the data lane is still empty, so this neither drops nor blocks
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            java.util.concurrent.Future<?> put = executor.submit(() -> {
+                mailbox.put(new ExampleBroadcast("Data"));
+                return null;
+            });
+            assertDoesNotThrow(() -> put.get(5, TimeUnit.SECONDS), "The data message should fit in the empty data lane.");
+            executor.shutdown();
+            assertEquals(0, mailbox.getDroppedMessages(), "Nothing should have been dropped.");
+            assertEquals(2, mailbox.size(), "Both messages should be counted as queued.");
+            assertTrue(mailbox.take() instanceof UrgentBroadcast, "The control message should be taken first.");
+            assertEquals("Data", ((ExampleBroadcast) mailbox.take()).getSenderId(), "The data message should follow.");
+        }
+    }
+
+    @Test
+    void testControlMessageOvertakesTheRestOfATakenBatch() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch firstRelease = new CountDownLatch(1);
+        List<String> handled = new CopyOnWriteArrayList<>();
+        MicroService listener = new MicroService("BatchedListener") {
+            @Override
+            protected void initialize() {
+                subscribeBroadcast(ExampleBroadcast.class, broadcast -> {
+                    String id = broadcast.getSenderId();
+                    try {
+                        if (id.equals("Gate")) {
+                            gate.await();
+                            return;
+                        }
+                        handled.add(id);
+                        if (id.equals("Data 0")) {
+                            firstStarted.countDown();
+                            firstRelease.await();
+                        } else if (id.equals("Data 9")) {
+                            terminate();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                subscribeBroadcast(UrgentBroadcast.class, broadcast -> handled.add("Urgent"));
+            }
+        };
+        Thread thread = new Thread(listener);
+        thread.start();
+        listener.awaitInitialized();
+
+        messageBus.sendBroadcast(new ExampleBroadcast("Gate"));
+        for (int i = 0; i < 10; i++) {
+            messageBus.sendBroadcast(new ExampleBroadcast("Data " + i));
+        }
+        gate.countDown(); // כל ההודעות נלקחות כעת באצווה אחת
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        messageBus.sendBroadcast(new UrgentBroadcast());
+        firstRelease.countDown();
+        thread.join(5000);
+
+        assertEquals(Arrays.asList("Data 0", "Urgent", "Data 1"), handled.subList(0, 3),
+            "A control message should be handled before the rest of the batch.");
+        assertEquals(11, handled.size());
+    }
+
+    @Test
+    void testCallbackWaitingForAControlMessageIsWokenByIt() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        CountDownLatch waiting = new CountDownLatch(1);
+        List<String> handled = new CopyOnWriteArrayList<>();
+        long[] waited = new long[1];
+        MicroService waiter = new MicroService("ControlWaiter") {
+            @Override
+            protected void initialize() {
+                subscribeBroadcast(ExampleBroadcast.class, broadcast -> {
+                    long start = System.nanoTime();
+                    waiting.countDown();
+                    while (!awaitControlMessage(TimeUnit.SECONDS.toNanos(10))) {
+                        // עד שמגיעה הודעת בקרה
+                    }
+                    waited[0] = System.nanoTime() - start;
+                    handleControlMessages();
+                    handled.add(isterminated() ? "Terminated" : "Running");
+                });
+                subscribeBroadcast(UrgentBroadcast.class, broadcast -> {
+                    handled.add("Urgent");
+                    terminate();
+                });
+            }
+        };
+        Thread thread = new Thread(waiter);
+        thread.start();
+        waiter.awaitInitialized();
+
+        messageBus.sendBroadcast(new ExampleBroadcast("Wait"));
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        messageBus.sendBroadcast(new UrgentBroadcast());
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertTrue(waited[0] < TimeUnit.SECONDS.toNanos(5), "The control message should end the wait.");
+        assertEquals(Arrays.asList("Urgent", "Terminated"), handled,
+            "The control message should be handled inside the waiting callback.");
+    }
+
     @Test
     void testSendEvent() throws InterruptedException {
         // Setup
@@ -163,6 +400,128 @@ class MessageBusImplTest {
             "Expected: Handler is no longer registered with the message bus after unregister. Actual: Handler is still registered.");
     }
 
+    @Test
+    void testHeldEventsAreSentByDeadlineOnTheirTick() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        MicroService sender = new ExampleBroadcastListenerService("HoldingSender", new String[]{"1"});
+        MicroService handler = new ExampleEventHandlerService("DeadlineHandler", new String[]{"1"});
+        Thread senderThread = new Thread(sender);
+        senderThread.start();
+        sender.awaitInitialized();
+        messageBus.register(handler);
+        messageBus.subscribeEvent(ExampleEvent.class, handler);
+        messageBus.sendBroadcast(new ExampleTick(1));
+
+        // לכל שחרור: כמה אירועים כבר נשלחו למטפל, או -1 אם לא רץ על התהליכון של השולח
+        List<Integer> releases = new CopyOnWriteArrayList<>();
+        Runnable onRelease = () -> releases.add(Thread.currentThread() == senderThread
+            ? messageBus.getMailbox(handler).getUnfinishedEvents() : -1);
+        ExampleEvent late = new ExampleEvent("Due 3");
+        ExampleEvent early = new ExampleEvent("Due 2");
+        ExampleEvent dropped = new ExampleEvent("Due 5");
+        assertNotNull(messageBus.sendEventAt(sender, late, 3, onRelease));
+        assertNotNull(messageBus.sendEventAt(sender, early, 2, onRelease));
+        messageBus.sendEventAt(sender, dropped, 5, onRelease);
+        assertEquals(3, messageBus.getHeldEvents(sender), "Events that are not due should be held.");
+        assertEquals(0, messageBus.getQueueSize(handler), "Held events should not be delivered yet.");
+
+        messageBus.sendBroadcast(new ExampleTick(3));
+        assertEquals(early, messageBus.awaitMessage(handler), "The earliest deadline should be delivered first.");
+        assertEquals(late, messageBus.awaitMessage(handler), "The next deadline should follow.");
+        assertEquals(List.of(0, 1), releases,
+            "The sender should run each release on its own thread, before the event reaches the handler.");
+        assertEquals(1, messageBus.getHeldEvents(sender), "Only the event due at 5 should still be held.");
+
+        ExampleEvent due = new ExampleEvent("Due now");
+        messageBus.sendEventAt(sender, due, 3, null);
+        assertEquals(due, messageBus.awaitMessage(handler), "An event that is already due should be sent at once.");
+
+        messageBus.sendBroadcast(new ExampleBroadcast("Stop")); // the listener terminates and unregisters
+        senderThread.join();
+        assertEquals(0, messageBus.getHeldEvents(sender), "Unregistering the sender should discard its held events.");
+        messageBus.sendBroadcast(new ExampleTick(5));
+        assertEquals(0, messageBus.getQueueSize(handler), "A discarded event should never be delivered.");
+        assertEquals(2, releases.size());
+        messageBus.unregister(handler);
+    }
+
+    @Test
+    void testTimingWheelReleasesEveryItemOnItsTick() {
+        TimingWheel<long[]> wheel = new TimingWheel<>(0);
+        java.util.Random random = new java.util.Random(42);
+        String kept = "Kept";
+        String cancelled = "Cancelled";
+        int items = 20_000;
+        for (int i = 0; i < items; i++) {
+            // dues spread over every level of the wheel, many of them shared
+            long due = 1 + (i % 3 == 0 ? random.nextInt(64) : random.nextInt(1 << (6 * (1 + i % 4))));
+            wheel.schedule(due, i % 10 == 0 ? cancelled : kept, new long[]{due, i});
+        }
+        int toCancel = wheel.size(cancelled);
+        assertEquals(toCancel, wheel.cancel(cancelled), "Every item of the owner should be cancelled.");
+        assertEquals(items - toCancel, wheel.size());
+
+        long time = 0;
+        long[] previous = {0, -1};
+        int released = 0;
+        while (wheel.size() > 0) {
+            long before = time;
+            long nextDue = wheel.nextDue();
+            time += 1 + random.nextInt(500);
+            List<long[]> due = wheel.advance(time);
+            if (nextDue <= time) {
+                assertEquals(nextDue, due.get(0)[0], "The next due tick should be that of the first item released.");
+            } else {
+                assertTrue(due.isEmpty(), "Nothing should be released before the next due tick.");
+            }
+            for (long[] item : due) {
+                assertTrue(item[0] > before && item[0] <= time, "An item should be released on its tick.");
+                assertTrue(item[0] > previous[0] || (item[0] == previous[0] && item[1] > previous[1]),
+                    "Items should be released by tick, then in scheduling order.");
+                assertNotEquals(0, item[1] % 10, "A cancelled item should never be released.");
+                previous = item;
+                released++;
+            }
+        }
+        assertEquals(items - toCancel, released, "Every kept item should be released exactly once.");
+        assertEquals(0, wheel.size(kept));
+        assertEquals(Long.MAX_VALUE, wheel.nextDue(), "An empty wheel should have no next due tick.");
+
+        wheel.schedule(time + 5, kept, new long[]{time + 5, 0});
+        assertTrue(wheel.advance(3).isEmpty(), "Restarting from an earlier tick should keep items held.");
+        assertEquals(1, wheel.size());
+        assertEquals(time + 5, wheel.nextDue());
+    }
+
+    @Test
+    void testTimingWheelNextDueWithManyPendingItems() {
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        java.util.Random random = new java.util.Random(7);
+        java.util.TreeMap<Long, Integer> pending = new java.util.TreeMap<>(); // הזמנים שעוד מחכים, עם מונה לכל זמן
+        String early = "EarlyOwner";
+        long time = 0;
+        for (int round = 0; round < 2_000; round++) {
+            // ממלאים את כל הרמות של הגלגל, כולל פריטים שמתבטלים לפני כולם
+            for (int i = 0; i < 50; i++) {
+                long due = time + 1 + random.nextInt(1 << (6 * (1 + random.nextInt(4))));
+                wheel.schedule(due, "Owner" + (i % 7), due);
+                pending.merge(due, 1, Integer::sum);
+            }
+            wheel.schedule(time + 1, early, time + 1);
+            wheel.cancel(early);
+            assertEquals(pending.firstKey().longValue(), wheel.nextDue(),
+                "The next due tick should be the earliest pending one, cancelled items aside, with " + wheel.size() + " pending.");
+
+            long next = random.nextBoolean() ? pending.firstKey() : time + 1 + random.nextInt(100);
+            for (Long due : wheel.advance(next)) {
+                assertEquals(due, pending.firstKey(), "Items should fall due in order.");
+                pending.merge(due, -1, (a, b) -> a + b == 0 ? null : a + b);
+            }
+            time = next;
+        }
+        assertEquals(pending.values().stream().mapToInt(Integer::intValue).sum(), wheel.size());
+    }
+
     @Test
     void testAwaitMessageThrowsExceptionIfNotRegistered() {
         // Setup
@@ -222,6 +581,27 @@ class MessageBusImplTest {
         messageBus.unregister(service);
     }
 
+    @Test
+    void testAwaitMessagesDrainsInOrder() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        MicroService service = new ExampleBroadcastListenerService("service", new String[]{"5"});
+        messageBus.register(service);
+        messageBus.subscribeBroadcast(ExampleBroadcast.class, service);
+        for (int i = 1; i <= 5; i++) {
+            messageBus.sendBroadcast(new ExampleBroadcast("Message " + i));
+        }
+
+        List<Message> batch = new ArrayList<>();
+        assertEquals(3, messageBus.awaitMessages(service, batch, 3), "The batch should be capped at maxMessages.");
+        assertEquals("Message 1", ((ExampleBroadcast) batch.get(0)).getSenderId(), "The batch should keep queue order.");
+        assertEquals("Message 3", ((ExampleBroadcast) batch.get(2)).getSenderId(), "The batch should keep queue order.");
+        assertEquals(2, messageBus.awaitMessages(service, batch, 3), "The rest of the queue should be drained.");
+        assertEquals(5, batch.size(), "Messages should be appended to the batch.");
+        assertEquals(0, messageBus.getQueueSize(service), "The queue should be empty after draining.");
+
+        messageBus.unregister(service);
+    }
+
     @Test
     void testCompleteUpdatesFutureCorrectly() {
         // Setup
@@ -249,6 +629,79 @@ class MessageBusImplTest {
         messageBus.unregister(handler);
     }
 
+    @Test
+    void testOutstandingFuturesAreReleased() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        MicroService handler = new ExampleEventHandlerService("Handler", new String[]{"5"});
+        messageBus.register(handler);
+        messageBus.subscribeEvent(ExampleEvent.class, handler);
+        long before = messageBus.getOutstandingFutures();
+
+        Event<String> completed = new ExampleEvent("Completed");
+        Future<String> future = messageBus.sendEvent(completed);
+        messageBus.sendEvent(new ExampleEvent("Received"));
+        messageBus.sendEvent(new ExampleEvent("Queued"));
+        assertEquals(before + 3, messageBus.getOutstandingFutures(), "Every sent event should have a live future.");
+
+        messageBus.awaitMessage(handler);
+        messageBus.complete(handler, completed, "Done");
+        assertEquals("Done", future.get(), "The future should be resolved through the handler's mailbox.");
+        messageBus.awaitMessage(handler);
+        assertEquals(before + 2, messageBus.getOutstandingFutures(), "A resolved future should no longer be live.");
+
+        // One event was received but never completed, the other is still queued
+        messageBus.unregister(handler);
+        assertEquals(before, messageBus.getOutstandingFutures(), "Unregister should drop the futures of its mailbox.");
+    }
+
+    @Test
+    void testTerminateMidBatchReleasesTheRestOfTheBatch() throws InterruptedException {
+        MessageBusImpl messageBus = MessageBusImpl.getInstance();
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> handled = new CopyOnWriteArrayList<>();
+        MicroService stopper = new MicroService("MidBatchStopper") {
+            @Override
+            protected void initialize() {
+                subscribeEvent(ExampleEvent.class, event -> {
+                    String name = event.getSenderName();
+                    try {
+                        if (name.equals("Gate")) {
+                            gate.await();
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    handled.add(name);
+                    if (name.equals("Stop")) {
+                        terminate();
+                    }
+                });
+            }
+        };
+        long before = messageBus.getOutstandingFutures();
+        Thread thread = new Thread(stopper);
+        thread.start();
+        stopper.awaitInitialized();
+
+        messageBus.sendEvent(new ExampleEvent("Gate"));
+        messageBus.sendEvent(new ExampleEvent("Stop"));
+        List<Future<String>> rest = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            rest.add(messageBus.sendEvent(new ExampleEvent("Rest " + i)));
+        }
+        gate.countDown(); // Stop והאירועים שאחריו ממתינים כעת באצווה אחת
+        thread.join(5000);
+
+        assertFalse(thread.isAlive(), "The micro-service should have stopped.");
+        assertEquals(Arrays.asList("Stop"), handled, "Nothing should be handled after terminate.");
+        for (Future<String> future : rest) {
+            assertFalse(future.isDone(), "An event nobody handled should not be resolved.");
+        }
+        // every future of the stopped micro-service, handled or not, is accounted for
+        assertEquals(before, messageBus.getOutstandingFutures(), "Unregister should drop the rest of the batch.");
+    }
+
     @Test
     void testCompleteWithNonExistentEventDoesNothing() {
         // Setup
@@ -427,7 +880,526 @@ class MessageBusImplTest {
          messageBus.unregister(handler1);
          messageBus.unregister(handler2);
      }
-     
+
+     @Test
+     public void testRoundRobinOrderSurvivesSubscriptionChanges() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         MicroService handler1 = new ExampleEventHandlerService("Handler1", new String[]{"5"});
+         MicroService handler2 = new ExampleEventHandlerService("Handler2", new String[]{"5"});
+         MicroService handler3 = new ExampleEventHandlerService("Handler3", new String[]{"5"});
+         messageBus.register(handler1);
+         messageBus.register(handler2);
+         messageBus.register(handler3);
+         messageBus.subscribeEvent(ExampleEvent.class, handler1);
+         messageBus.subscribeEvent(ExampleEvent.class, handler2);
+
+         // a late subscriber joins the back of the rotation, behind the service that was just served
+         Event<String> event1 = new ExampleEvent("TestEvent1");
+         messageBus.sendEvent(event1);
+         messageBus.subscribeEvent(ExampleEvent.class, handler3);
+         Event<String> event2 = new ExampleEvent("TestEvent2");
+         Event<String> event3 = new ExampleEvent("TestEvent3");
+         Event<String> event4 = new ExampleEvent("TestEvent4");
+         messageBus.sendEvent(event2);
+         messageBus.sendEvent(event3);
+         messageBus.sendEvent(event4);
+         assertEquals(event1, messageBus.awaitMessage(handler1), "First event should go to handler1.");
+         assertEquals(event2, messageBus.awaitMessage(handler2), "Second event should go to handler2.");
+         assertEquals(event3, messageBus.awaitMessage(handler1), "Third event should go back to handler1.");
+         assertEquals(event4, messageBus.awaitMessage(handler3), "Fourth event should go to the late subscriber.");
+
+         // removing a subscriber keeps the rotation of the remaining ones
+         messageBus.unregister(handler1);
+         Event<String> event5 = new ExampleEvent("TestEvent5");
+         Event<String> event6 = new ExampleEvent("TestEvent6");
+         messageBus.sendEvent(event5);
+         messageBus.sendEvent(event6);
+         assertEquals(event5, messageBus.awaitMessage(handler2), "Fifth event should go to handler2.");
+         assertEquals(event6, messageBus.awaitMessage(handler3), "Sixth event should go to handler3.");
+
+         messageBus.unregister(handler2);
+         messageBus.unregister(handler3);
+         assertEquals(0, messageBus.getNumberOfSubscribersToEvent(ExampleEvent.class),
+             "No subscribers should remain after every handler unregistered.");
+     }
+
+     @Test
+     public void testLeastInFlightRoutingAvoidsBusyHandler() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         MicroService busy = new ExampleEventHandlerService("Busy", new String[]{"5"});
+         MicroService idle = new ExampleEventHandlerService("Idle", new String[]{"5"});
+         messageBus.register(busy);
+         messageBus.register(idle);
+         messageBus.subscribeEvent(ExampleEvent.class, busy);
+         messageBus.subscribeEvent(ExampleEvent.class, idle);
+         messageBus.setRoutingStrategy(ExampleEvent.class, RoutingStrategy.LEAST_IN_FLIGHT);
+
+         // equally loaded handlers still take turns
+         Event<String> held = new ExampleEvent("Held");
+         Event<String> done = new ExampleEvent("Done");
+         messageBus.sendEvent(held);
+         messageBus.sendEvent(done);
+         assertEquals(held, messageBus.awaitMessage(busy), "First event should go to the busy handler.");
+         assertEquals(done, messageBus.awaitMessage(idle), "Second event should go to the idle handler.");
+
+         // the busy handler holds its event without completing it, the idle one completes
+         messageBus.complete(idle, done, "Done");
+         assertEquals(1, messageBus.getMailbox(busy).getUnfinishedEvents(), "The held event should be unfinished.");
+         Event<String> next1 = new ExampleEvent("Next1");
+         Event<String> next2 = new ExampleEvent("Next2");
+         messageBus.sendEvent(next1);
+         messageBus.sendEvent(next2);
+         assertEquals(next1, messageBus.awaitMessage(idle), "The handler with fewer unfinished events should be picked.");
+         assertEquals(next2, messageBus.awaitMessage(idle), "On a tie the rotation continues from the idle handler.");
+
+         messageBus.setRoutingStrategy(ExampleEvent.class, RoutingStrategy.ROUND_ROBIN);
+         messageBus.unregister(busy);
+         messageBus.unregister(idle);
+     }
+
+     @Test
+     public void testConsistentHashKeepsKeysOnSurvivingWorkers() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         List<MicroService> workers = new ArrayList<>();
+         for (int i = 1; i <= 3; i++) {
+             MicroService worker = new ExampleEventHandlerService("Worker" + i, new String[]{"5"});
+             messageBus.register(worker);
+             messageBus.subscribeEvent(KeyedExampleEvent.class, worker);
+             workers.add(worker);
+         }
+         messageBus.setRoutingStrategy(KeyedExampleEvent.class, RoutingStrategy.CONSISTENT_HASH);
+
+         List<MicroService> owners = new ArrayList<>();
+         for (int key = 0; key < 30; key++) {
+             owners.add(deliver(messageBus, workers, new KeyedExampleEvent("Wall_" + key)));
+         }
+         assertEquals(owners.get(7), deliver(messageBus, workers, new KeyedExampleEvent("Wall_7")),
+             "The same key should always reach the same worker.");
+
+         // only the keys of the worker that left may move
+         MicroService leaving = workers.remove(0);
+         messageBus.unregister(leaving);
+         for (int key = 0; key < 30; key++) {
+             MicroService owner = deliver(messageBus, workers, new KeyedExampleEvent("Wall_" + key));
+             if (owners.get(key) != leaving) {
+                 assertEquals(owners.get(key), owner, "A key of a surviving worker should not move.");
+             }
+         }
+
+         messageBus.setRoutingStrategy(KeyedExampleEvent.class, RoutingStrategy.ROUND_ROBIN);
+         workers.forEach(messageBus::unregister);
+     }
+
+     @Test
+     public void testPooledServicesRunOneCallbackAtATime() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         int services = 50;
+         int broadcasts = 20;
+         ActorPool actorPool = new ActorPool(2);
+         AtomicInteger overlaps = new AtomicInteger();
+         AtomicInteger handled = new AtomicInteger();
+         List<MicroService> actors = new ArrayList<>();
+         for (int i = 0; i < services; i++) {
+             MicroService actor = new MicroService("Actor" + i) {
+                 private final AtomicBoolean busy = new AtomicBoolean();
+                 private int received;
+
+                 @Override
+                 protected void initialize() {
+                     subscribeBroadcast(ExampleBroadcast.class, broadcast -> {
+                         if (!busy.compareAndSet(false, true)) {
+                             overlaps.incrementAndGet();
+                         }
+                         handled.incrementAndGet();
+                         if (++received == broadcasts) {
+                             terminate();
+                         }
+                         busy.set(false);
+                     });
+                 }
+             };
+             actors.add(actor);
+             actorPool.start(actor);
+         }
+         // initialize runs on the pool, wait until every actor subscribed
+         long deadline = System.currentTimeMillis() + 5000;
+         while (messageBus.getNumberOfSubscribersToBroad(ExampleBroadcast.class) < services) {
+             assertTrue(System.currentTimeMillis() < deadline, "All actors should subscribe.");
+             Thread.sleep(1);
+         }
+
+         for (int i = 0; i < broadcasts; i++) {
+             messageBus.sendBroadcast(new ExampleBroadcast("Broadcast" + i));
+         }
+         actorPool.awaitTermination();
+
+         assertEquals(services * broadcasts, handled.get(), "Every actor should handle every broadcast.");
+         assertEquals(0, overlaps.get(), "The callbacks of one actor must never run concurrently.");
+         assertTrue(actorPool.getPoolSize() <= 2, "The pool should not grow with the number of services.");
+         actors.forEach(actor -> assertFalse(messageBus.isRegistered(actor), "A terminated actor should unregister."));
+     }
+
+     @Test
+     public void testMessageWithoutCallbackIsIgnored() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         ActorPool actorPool = new ActorPool(1);
+         MicroService listener = new ExampleBroadcastListenerService("NoEventCallback", new String[]{"1"});
+         actorPool.start(listener);
+         long deadline = System.currentTimeMillis() + 5000;
+         while (!messageBus.isSubscribedToBroad(ExampleBroadcast.class, listener)) {
+             assertTrue(System.currentTimeMillis() < deadline, "The listener should subscribe.");
+             Thread.sleep(1);
+         }
+
+         // subscribed on the bus directly, so the service has no callback for it
+         messageBus.subscribeEvent(ExampleEvent.class, listener);
+         assertNotNull(messageBus.sendEvent(new ExampleEvent("Unhandled")));
+         messageBus.sendBroadcast(new ExampleBroadcast("Handled"));
+         actorPool.awaitTermination();
+
+         assertFalse(messageBus.isRegistered(listener), "The listener should survive the unhandled event and terminate.");
+     }
+
+     @Test
+     public void testOnCompleteRunsInTheSendersEventLoop() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         AtomicInteger wrongThread = new AtomicInteger();
+         AtomicInteger completed = new AtomicInteger();
+         int events = 20;
+         MicroService handler = new MicroService("CompletingHandler") {
+             private int handled;
+
+             @Override
+             protected void initialize() {
+                 subscribeEvent(ExampleEvent.class, event -> {
+                     complete(event, event.getSenderName());
+                     if (++handled == events) {
+                         terminate();
+                     }
+                 });
+             }
+         };
+         MicroService sender = new MicroService("ContinuingSender") {
+             private Thread loop;
+
+             @Override
+             protected void initialize() {
+                 loop = Thread.currentThread();
+                 subscribeBroadcast(ExampleBroadcast.class, broadcast -> {
+                     for (int i = 0; i < events; i++) {
+                         onComplete(sendEvent(new ExampleEvent("Event" + i)), result -> {
+                             if (Thread.currentThread() != loop) {
+                                 wrongThread.incrementAndGet();
+                             }
+                             if (completed.incrementAndGet() == events) {
+                                 terminate();
+                             }
+                         });
+                     }
+                 });
+             }
+         };
+         Thread handlerThread = new Thread(handler);
+         Thread senderThread = new Thread(sender);
+         handlerThread.start();
+         senderThread.start();
+         long deadline = System.currentTimeMillis() + 5000;
+         while (!messageBus.isSubscribedToEvent(ExampleEvent.class, handler)
+                 || !messageBus.isSubscribedToBroad(ExampleBroadcast.class, sender)) {
+             assertTrue(System.currentTimeMillis() < deadline, "Both services should subscribe.");
+             Thread.sleep(1);
+         }
+
+         messageBus.sendBroadcast(new ExampleBroadcast("Go"));
+         senderThread.join(5000);
+         handlerThread.join(5000);
+
+         assertEquals(events, completed.get(), "Every completion should reach the sender.");
+         assertEquals(0, wrongThread.get(), "Completions should run on the sender's own event loop.");
+         assertFalse(messageBus.isRegistered(sender));
+     }
+
+     @Test
+     public void testEventsAreCompletedOnceFromAnyThreadAndAnyTime() throws Exception {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         ExecutorService completers = Executors.newFixedThreadPool(2);
+         int events = 300;
+         MicroService handler = new MicroService("MixedCompleter") {
+             @Override
+             protected void initialize() {
+                 subscribeEvent(ExampleEvent.class, event -> {
+                     int i = Integer.parseInt(event.getSenderName());
+                     if (i % 3 == 0) { // מתוך ה-callback עצמו
+                         complete(event, event.getSenderName());
+                     } else if (i % 3 == 1) { // מתהליך אחר, בזמן שה-callback עוד רץ
+                         Thread other = new Thread(() -> complete(event, event.getSenderName()));
+                         other.start();
+                         try {
+                             other.join();
+                         } catch (InterruptedException e) {
+                             Thread.currentThread().interrupt();
+                         }
+                     } else { // מתהליך אחר, במקביל לסיום ה-callback או אחריו
+                         completers.execute(() -> complete(event, event.getSenderName()));
+                     }
+                 });
+                 subscribeBroadcast(ExampleBroadcast.class, broadcast -> terminate());
+             }
+         };
+         Thread handlerThread = new Thread(handler);
+         handlerThread.start();
+         handler.awaitInitialized();
+         long outstanding = messageBus.getOutstandingFutures();
+
+         List<Future<String>> futures = new ArrayList<>();
+         for (int i = 0; i < events; i++) {
+             futures.add(messageBus.sendEvent(new ExampleEvent(String.valueOf(i))));
+         }
+         for (int i = 0; i < events; i++) {
+             assertEquals(String.valueOf(i), futures.get(i).get(5, TimeUnit.SECONDS), "Event " + i + " should be completed.");
+         }
+         completers.shutdown();
+         assertTrue(completers.awaitTermination(5, TimeUnit.SECONDS));
+         assertEquals(0, messageBus.getMailbox(handler).getUnfinishedEvents(), "Every event should be counted as finished once.");
+         assertEquals(outstanding, messageBus.getOutstandingFutures(), "No completed event should stay outstanding.");
+
+         messageBus.sendBroadcast(new ExampleBroadcast("Stop"));
+         handlerThread.join(5000);
+         assertFalse(messageBus.isRegistered(handler));
+     }
+
+     @Test
+     public void testCompleteFindsAnEventWhereverItIs() throws Exception {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         CountDownLatch gate = new CountDownLatch(1);
+         int events = 300;
+         MicroService handler = new MicroService("AnyStageHandler") {
+             @Override
+             protected void initialize() {
+                 subscribeEvent(ExampleEvent.class, event -> {
+                     if (event.getSenderName().equals("Gate")) {
+                         try {
+                             gate.await();
+                         } catch (InterruptedException e) {
+                             Thread.currentThread().interrupt();
+                         }
+                     }
+                     complete(event, "Handled");
+                 });
+                 subscribeBroadcast(ExampleBroadcast.class, broadcast -> terminate());
+             }
+         };
+         Thread handlerThread = new Thread(handler);
+         handlerThread.start();
+         handler.awaitInitialized();
+         long outstanding = messageBus.getOutstandingFutures();
+
+         Future<String> gated = messageBus.sendEvent(new ExampleEvent("Gate"));
+         ExampleEvent queued = new ExampleEvent("Queued");
+         Future<String> queuedFuture = messageBus.sendEvent(queued);
+         messageBus.complete(queued, "Early"); // עדיין בתור, מאחורי ה-Gate
+         assertTrue(queuedFuture.isDone(), "A queued event should be completed at once.");
+         gate.countDown();
+
+         // כל אירוע מושלם גם כאן וגם ב-callback, בכל שלב שבו הוא נמצא
+         List<Future<String>> futures = new ArrayList<>();
+         for (int i = 0; i < events; i++) {
+             ExampleEvent event = new ExampleEvent(String.valueOf(i));
+             futures.add(messageBus.sendEvent(event));
+             messageBus.complete(event, "Early");
+         }
+         assertEquals("Handled", gated.get(5, TimeUnit.SECONDS));
+         assertEquals("Early", queuedFuture.get(), "Handling an event completed early should not resolve it again.");
+         for (int i = 0; i < events; i++) {
+             String result = futures.get(i).get(5, TimeUnit.SECONDS);
+             assertTrue("Early".equals(result) || "Handled".equals(result), "Event " + i + " should be completed.");
+         }
+         messageBus.sendBroadcast(new ExampleBroadcast("Stop"));
+         handlerThread.join(5000);
+         assertFalse(messageBus.isRegistered(handler));
+         assertEquals(outstanding, messageBus.getOutstandingFutures(), "Every event should be counted as completed once.");
+     }
+
+     @Test
+     public void testSendEventsRoutesTheBatchAndFillsTheGroup() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         MicroService first = new ExampleEventHandlerService("BatchHandler1", new String[]{"1"});
+         MicroService second = new ExampleEventHandlerService("BatchHandler2", new String[]{"1"});
+         messageBus.register(first);
+         messageBus.register(second);
+         messageBus.subscribeEvent(ExampleEvent.class, first);
+         messageBus.subscribeEvent(ExampleEvent.class, second);
+         MicroService next = messageBus.getEventSubscribers(ExampleEvent.class).peek();
+         MicroService other = next == first ? second : first;
+
+         long outstanding = messageBus.getOutstandingFutures();
+         List<ExampleEvent> events = new ArrayList<>();
+         for (int i = 0; i < 6; i++) {
+             events.add(new ExampleEvent("Batch" + i));
+         }
+         FutureGroup<String> group = messageBus.sendEvents(events);
+         assertEquals(6, group.size());
+         assertEquals(0, group.getUnrouted());
+         assertEquals(3, messageBus.getQueueSize(first), "Round-robin should split the batch evenly.");
+         assertEquals(3, messageBus.getQueueSize(second), "Round-robin should split the batch evenly.");
+         assertEquals(next, messageBus.getEventSubscribers(ExampleEvent.class).peek(),
+             "The batch should take whole turns of the round-robin.");
+
+         for (int i = 0; i < 6; i++) {
+             MicroService handler = i % 2 == 0 ? next : other;
+             ExampleEvent event = (ExampleEvent) messageBus.awaitMessage(handler);
+             assertEquals(events.get(i), event, "Each handler should receive its events in batch order.");
+             assertFalse(group.all().isDone(), "The group should wait for every event.");
+             messageBus.complete(handler, event, "Result" + i);
+             assertEquals("Result" + i, group.getNow(i));
+         }
+         assertTrue(group.isDone());
+         assertEquals(Arrays.asList("Result0", "Result1", "Result2", "Result3", "Result4", "Result5"),
+             group.all().get(100, TimeUnit.MILLISECONDS), "The group should keep the order of the batch.");
+         assertEquals(outstanding, messageBus.getOutstandingFutures(), "Completed batch events should not stay outstanding.");
+
+         class UnsubscribedEvent implements Event<Boolean> {
+         }
+         FutureGroup<Boolean> unrouted = messageBus.sendEvents(Arrays.asList(new UnsubscribedEvent()));
+         assertEquals(1, unrouted.getUnrouted(), "An event without subscribers should be counted as unrouted.");
+         assertTrue(unrouted.isDone());
+
+         messageBus.unregister(first);
+         messageBus.unregister(second);
+     }
+
+     @Test
+     public void testShardsKeepTheirOwnSubscriptionsAndTraffic() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         int shards = messageBus.getShardCount();
+         assertTrue(shards > 0 && Integer.bitCount(shards) == 1, "The number of shards should be a power of two.");
+         int eventShard = messageBus.getShardOf(ExampleEvent.class);
+         int broadcastShard = messageBus.getShardOf(ExampleBroadcast.class);
+         assertTrue(eventShard >= 0 && eventShard < shards);
+         assertTrue(broadcastShard >= 0 && broadcastShard < shards);
+         assertEquals(eventShard, messageBus.getShardOf(ExampleEvent.class), "A type should always map to the same shard.");
+
+         MicroService handler = new ExampleEventHandlerService("ShardHandler", new String[]{"1"});
+         messageBus.register(handler);
+         messageBus.subscribeEvent(ExampleEvent.class, handler);
+         messageBus.subscribeBroadcast(ExampleBroadcast.class, handler);
+         long eventTraffic = messageBus.getShardTraffic(eventShard);
+         long broadcastTraffic = messageBus.getShardTraffic(broadcastShard);
+
+         messageBus.sendEvent(new ExampleEvent("Sharded"));
+         messageBus.sendBroadcast(new ExampleBroadcast("Sharded"));
+         assertEquals(2, messageBus.getQueueSize(handler), "Both messages should reach the subscriber.");
+         if (eventShard == broadcastShard) {
+             assertEquals(eventTraffic + 2, messageBus.getShardTraffic(eventShard));
+         } else {
+             assertEquals(eventTraffic + 1, messageBus.getShardTraffic(eventShard), "The event should count in its shard.");
+             assertEquals(broadcastTraffic + 1, messageBus.getShardTraffic(broadcastShard), "The broadcast should count in its shard.");
+         }
+
+         messageBus.unregister(handler);
+         assertEquals(0, messageBus.getNumberOfSubscribersToEvent(ExampleEvent.class),
+             "Unregistering should clear the subscription in every shard.");
+         assertEquals(0, messageBus.getNumberOfSubscribersToBroad(ExampleBroadcast.class));
+     }
+
+     @Test
+     public void testAwaitQuiescenceWaitsForEveryCallback() throws InterruptedException {
+         MessageBusImpl messageBus = MessageBusImpl.getInstance();
+         messageBus.enableQuiescenceDetection();
+         int events = 10;
+         AtomicInteger handled = new AtomicInteger();
+         AtomicInteger handledAtQuiescence = new AtomicInteger(-1);
+         AtomicBoolean settled = new AtomicBoolean();
+         MicroService handler = new MicroService("SlowHandler") {
+             @Override
+             protected void initialize() {
+                 subscribeEvent(ExampleEvent.class, event -> {
+                     try {
+                         Thread.sleep(5);
+                     } catch (InterruptedException e) {
+                         Thread.currentThread().interrupt();
+                     }
+                     handled.incrementAndGet();
+                 });
+                 subscribeBroadcast(UrgentBroadcast.class, broadcast -> terminate());
+             }
+         };
+         MicroService clock = new MicroService("QuiescentClock") {
+             @Override
+             protected void initialize() {
+                 subscribeBroadcast(ExampleBroadcast.class, broadcast -> {
+                     for (int i = 0; i < events; i++) {
+                         sendEvent(new ExampleEvent("Settle" + i));
+                     }
+                     // its own queued broadcast below must not keep it waiting
+                     sendBroadcast(new ExampleBroadcast("Queued for the clock"));
+                     settled.set(awaitQuiescence(5, TimeUnit.SECONDS));
+                     handledAtQuiescence.set(handled.get());
+                     terminate();
+                 });
+             }
+         };
+         Thread handlerThread = new Thread(handler);
+         Thread clockThread = new Thread(clock);
+         handlerThread.start();
+         clockThread.start();
+         handler.awaitInitialized();
+         clock.awaitInitialized();
+
+         messageBus.sendBroadcast(new ExampleBroadcast("Go"));
+         clockThread.join(5000);
+         assertTrue(settled.get(), "The system should settle before the timeout.");
+         assertEquals(events, handledAtQuiescence.get(), "Quiescence should wait until every event was handled.");
+
+         messageBus.sendBroadcast(new UrgentBroadcast());
+         handlerThread.join(5000);
+         assertFalse(messageBus.isRegistered(handler));
+         assertFalse(messageBus.isRegistered(clock));
+     }
+
+     // שולחת אירוע ומחזירה את המיקרו-שירות שקיבל אותו
+     private static MicroService deliver(MessageBusImpl messageBus, List<MicroService> workers, Event<String> event)
+             throws InterruptedException {
+         messageBus.sendEvent(event);
+         for (MicroService worker : workers) {
+             if (messageBus.getQueueSize(worker) > 0) {
+                 assertEquals(event, messageBus.awaitMessage(worker));
+                 return worker;
+             }
+         }
+         fail("The event was not delivered to any worker.");
+         return null;
+     }
+
+     private static class UrgentBroadcast implements Broadcast, ControlMessage {
+     }
+
+     private static class ExampleTick implements ClockTick {
+         private final int time;
+
+         ExampleTick(int time) {
+             this.time = time;
+         }
+
+         @Override
+         public int getTime() {
+             return time;
+         }
+     }
+
+     private static class KeyedExampleEvent implements KeyedEvent<String> {
+         private final String key;
+
+         KeyedExampleEvent(String key) {
+             this.key = key;
+         }
+
+         @Override
+         public Object getRoutingKey() {
+             return key;
+         }
+     }
+
 
         
 
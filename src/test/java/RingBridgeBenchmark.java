@@ -0,0 +1,141 @@
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MappedRing;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MessageCodec;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.RingBridge;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Round-trip latency of an event and its result through a {@link RingBridge} to a
+ * second JVM, against the same round trip on the in-process bus. The second JVM is
+ * started by the benchmark and runs a service that completes every event at once.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes RingBridgeBenchmark [round trips]}
+ */
+public class RingBridgeBenchmark {
+
+    private static final int RING_BYTES = 1 << 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1 && args[0].equals("--echo")) {
+            runEcho(Paths.get(args[1]));
+            return;
+        }
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        Path dir = Files.createTempDirectory("ring-bridge");
+        RingBridge bridge = new RingBridge("ToEcho", MappedRing.create(dir.resolve("requests"), RING_BYTES),
+                MappedRing.create(dir.resolve("results"), RING_BYTES), new PingCodec());
+        bridge.exportEvent(Ping.class);
+        bridge.exportBroadcast(Stop.class);
+        bridge.start();
+        Process echo = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), RingBridgeBenchmark.class.getName(), "--echo", dir.toString())
+                .inheritIO().start();
+        while (bus.sendEvent(new Ping(0)).get() == null) { // until the other JVM subscribed
+            Thread.sleep(1);
+        }
+        long[] remote = measure(bus, rounds);
+        bus.sendBroadcast(new Stop());
+        echo.waitFor();
+        bridge.close();
+        Files.delete(dir.resolve("requests"));
+        Files.delete(dir.resolve("results"));
+        Files.delete(dir);
+
+        Thread local = new Thread(new Echo());
+        local.start();
+        while (bus.getNumberOfSubscribersToEvent(Ping.class) < 1) {
+            Thread.sleep(1);
+        }
+        long[] inProcess = measure(bus, rounds);
+        bus.sendBroadcast(new Stop());
+        local.join();
+
+        System.out.printf("%-12s %10s %10s %10s%n", "bus", "mean us", "p50 us", "p99 us");
+        report("in-process", inProcess);
+        report("ring bridge", remote);
+    }
+
+    private static long[] measure(MessageBusImpl bus, int rounds) {
+        for (int i = 1; i <= rounds / 10; i++) { // warm up
+            bus.sendEvent(new Ping(i)).get();
+        }
+        long[] nanos = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            Integer echoed = bus.sendEvent(new Ping(i)).get();
+            nanos[i] = System.nanoTime() - start;
+            if (echoed != i) {
+                throw new IllegalStateException("Ping " + i + " was answered with " + echoed);
+            }
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static void report(String bus, long[] nanos) {
+        System.out.printf("%-12s %10.1f %10.1f %10.1f%n", bus, Arrays.stream(nanos).average().orElse(0) / 1e3,
+                nanos[nanos.length / 2] / 1e3, nanos[(int) (nanos.length * 0.99)] / 1e3);
+    }
+
+    // the second JVM: answers pings until it is stopped
+    private static void runEcho(Path dir) throws InterruptedException, IOException {
+        RingBridge bridge = new RingBridge("FromParent", MappedRing.open(dir.resolve("results"), RING_BYTES),
+                MappedRing.open(dir.resolve("requests"), RING_BYTES), new PingCodec());
+        bridge.start();
+        Thread echo = new Thread(new Echo());
+        echo.start();
+        echo.join();
+        bridge.close();
+    }
+
+    private static class Ping implements Event<Integer> {
+        private final int sequence;
+
+        Ping(int sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Stop implements Broadcast {
+    }
+
+    private static class PingCodec implements MessageCodec {
+        @Override
+        public void encode(Message message, ByteBuffer out) {
+            if (message instanceof Ping) {
+                out.put((byte) 1).putInt(((Ping) message).sequence);
+            } else {
+                out.put((byte) 2);
+            }
+        }
+
+        @Override
+        public Message decode(ByteBuffer in) {
+            return in.get() == 1 ? new Ping(in.getInt()) : new Stop();
+        }
+    }
+
+    private static class Echo extends MicroService {
+        Echo() {
+            super("Echo");
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(Ping.class, ping -> complete(ping, ping.sequence));
+            subscribeBroadcast(Stop.class, stop -> terminate());
+        }
+    }
+}
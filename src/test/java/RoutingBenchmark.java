@@ -0,0 +1,116 @@
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.RoutingStrategy;
+import bgu.spl.mics.example.services.ExampleEventHandlerService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Routing benchmark with unevenly loaded workers, modelled on LiDAR workers where
+ * one is stuck behind a backlog: one handler needs {@link #SLOW_FACTOR} times longer
+ * per event than the others. Events are sent at a fixed rate and the time from
+ * sendEvent until the handler completes the event is reported per routing strategy.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes RoutingBenchmark [events]}
+ */
+public class RoutingBenchmark {
+
+    private static final int HANDLERS = 4;
+    private static final int SLOW_FACTOR = 10;
+    private static final long WORK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long SEND_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    public static void main(String[] args) throws InterruptedException {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        System.out.printf("%-16s %10s %10s %10s %10s%n", "strategy", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (RoutingStrategy strategy : RoutingStrategy.values()) {
+            long[] latencies = run(strategy, events);
+            System.out.printf("%-16s %10.2f %10.2f %10.2f %10.2f%n", strategy,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999), percentile(latencies, 1.0));
+        }
+    }
+
+    private static long[] run(RoutingStrategy strategy, int events) throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        bus.setRoutingStrategy(TimedEvent.class, strategy);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        CountDownLatch finished = new CountDownLatch(events);
+        List<Thread> threads = new ArrayList<>();
+        List<MicroService> handlers = new ArrayList<>();
+        for (int i = 0; i < HANDLERS; i++) {
+            MicroService handler = new ExampleEventHandlerService("RoutingHandler" + i, new String[]{"1"});
+            long work = i == 0 ? WORK_NANOS * SLOW_FACTOR : WORK_NANOS;
+            bus.register(handler);
+            bus.subscribeEvent(TimedEvent.class, handler);
+            bus.subscribeEvent(PoisonPill.class, handler);
+            handlers.add(handler);
+            threads.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        Message message = bus.awaitMessage(handler);
+                        if (message instanceof PoisonPill) {
+                            return;
+                        }
+                        TimedEvent event = (TimedEvent) message;
+                        LockSupport.parkNanos(work);
+                        latencies.add(System.nanoTime() - event.sentAt);
+                        bus.complete(handler, event, Boolean.TRUE);
+                        finished.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        long next = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            bus.sendEvent(new TimedEvent(System.nanoTime()));
+            next += SEND_INTERVAL_NANOS;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        finished.await();
+        bus.setRoutingStrategy(TimedEvent.class, RoutingStrategy.ROUND_ROBIN);
+        // round-robin hands exactly one pill to every handler
+        for (int i = 0; i < HANDLERS; i++) {
+            bus.sendEvent(new PoisonPill());
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        handlers.forEach(bus::unregister);
+        return latencies.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static double percentile(long[] values, double fraction) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static class TimedEvent implements Event<Boolean> {
+        private final long sentAt;
+
+        TimedEvent(long sentAt) {
+            this.sentAt = sentAt;
+        }
+    }
+
+    /** Stops a handler thread once every event sent before it was consumed. */
+    private static class PoisonPill implements Event<Boolean> {
+    }
+}
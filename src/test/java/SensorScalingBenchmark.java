@@ -0,0 +1,152 @@
+import bgu.spl.mics.ActorPool;
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.VirtualThreads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Scaling benchmark with many simulated sensors: every sensor is a micro-service that
+ * answers each tick with one event to a single fusion service, like a camera sending
+ * DetectObjectsEvents. For each execution mode it reports the time to set up the
+ * sensors, the mean time for a tick to fan out to all sensors and their events to
+ * fan back in, and the peak number of platform threads.
+ * <p>
+ * Modes: "platform" (one platform thread per service), "virtual" (one virtual thread
+ * per service, needs Java 21) and "pooled" ({@link ActorPool} with one thread per core).
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -cp target/classes:target/test-classes SensorScalingBenchmark [sensors] [ticks] [modes...]}
+ */
+public class SensorScalingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int sensors = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<String> modes = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            modes.add(args[i]);
+        }
+        if (modes.isEmpty()) {
+            modes.add("platform");
+            modes.add("virtual");
+            modes.add("pooled");
+        }
+        System.out.printf("%-10s %8s %12s %14s %14s%n", "mode", "sensors", "startup ms", "ms per tick", "peak threads");
+        for (String mode : modes) {
+            if (mode.equals("virtual") && !VirtualThreads.isSupported()) {
+                System.out.printf("%-10s skipped: virtual threads need Java 21%n", mode);
+                continue;
+            }
+            run(mode, sensors, ticks);
+        }
+    }
+
+    private static void run(String mode, int sensors, int ticks) throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        threadBean.resetPeakThreadCount();
+        Semaphore readings = new Semaphore(0);
+        List<MicroService> services = new ArrayList<>();
+        services.add(new Fusion(readings, (long) sensors * ticks));
+        for (int i = 0; i < sensors; i++) {
+            services.add(new Sensor("Sensor" + i, ticks));
+        }
+
+        long start = System.nanoTime();
+        ActorPool actorPool = null;
+        List<Thread> threads = new ArrayList<>();
+        if (mode.equals("pooled")) {
+            actorPool = new ActorPool(Runtime.getRuntime().availableProcessors());
+            services.forEach(actorPool::start);
+        } else {
+            ThreadFactory factory = mode.equals("virtual") ? VirtualThreads.factory() : Thread::new;
+            for (MicroService service : services) {
+                Thread thread = factory.newThread(service);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+        while (bus.getNumberOfSubscribersToBroad(BenchTick.class) < sensors
+                || bus.getNumberOfSubscribersToEvent(Reading.class) < 1) {
+            Thread.sleep(1);
+        }
+        double startupMillis = (System.nanoTime() - start) / 1e6;
+
+        long ticking = System.nanoTime();
+        for (int tick = 1; tick <= ticks; tick++) {
+            bus.sendBroadcast(new BenchTick(tick));
+            readings.acquire(sensors); // every sensor answered this tick
+        }
+        double millisPerTick = (System.nanoTime() - ticking) / 1e6 / ticks;
+
+        if (actorPool != null) {
+            actorPool.awaitTermination();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("%-10s %8d %12.0f %14.2f %14d%n", mode, sensors, startupMillis, millisPerTick,
+                threadBean.getPeakThreadCount());
+    }
+
+    private static class BenchTick implements Broadcast {
+        private final int time;
+
+        BenchTick(int time) {
+            this.time = time;
+        }
+    }
+
+    private static class Reading implements Event<Boolean> {
+    }
+
+    private static class Sensor extends MicroService {
+        private final int ticks;
+
+        Sensor(String name, int ticks) {
+            super(name);
+            this.ticks = ticks;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeBroadcast(BenchTick.class, tick -> {
+                sendEvent(new Reading());
+                if (tick.time == ticks) {
+                    terminate();
+                }
+            });
+        }
+    }
+
+    private static class Fusion extends MicroService {
+        private final Semaphore readings;
+        private final long expected;
+        private long received;
+
+        Fusion(Semaphore readings, long expected) {
+            super("Fusion");
+            this.readings = readings;
+            this.expected = expected;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(Reading.class, reading -> {
+                complete(reading, Boolean.TRUE);
+                readings.release();
+                if (++received == expected) {
+                    terminate();
+                }
+            });
+        }
+    }
+}
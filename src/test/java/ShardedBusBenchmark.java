@@ -0,0 +1,134 @@
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Scaling benchmark of the sharded message bus with several simulated robots running
+ * side by side: every robot has its own sensor thread sending its own reading type
+ * to its own fusion service, so robots only meet in the bus. It reports the total
+ * event throughput and which shard each robot's traffic went through.
+ * <p>
+ * The number of shards is fixed when the bus is created, so compare runs with e.g.
+ * {@code -Dbgu.spl.mics.shards=1} against the default of one shard per core or more.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -Dbgu.spl.mics.shards=8 -cp target/classes:target/test-classes ShardedBusBenchmark [robots] [events]}
+ */
+public class ShardedBusBenchmark {
+
+    private static final List<Supplier<Reading>> READINGS = List.of(
+            Reading0::new, Reading1::new, Reading2::new, Reading3::new,
+            Reading4::new, Reading5::new, Reading6::new, Reading7::new);
+
+    public static void main(String[] args) throws InterruptedException {
+        int robots = Math.min(READINGS.size(), args.length > 0 ? Integer.parseInt(args[0]) : 4);
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+
+        List<Thread> fusions = new ArrayList<>();
+        for (int r = 0; r < robots; r++) {
+            Thread thread = new Thread(new Fusion(r, events));
+            thread.start();
+            fusions.add(thread);
+        }
+        for (int r = 0; r < robots; r++) {
+            while (bus.getNumberOfSubscribersToEvent(typeOf(r)) < 1) {
+                Thread.sleep(1);
+            }
+        }
+
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> sensors = new ArrayList<>();
+        for (int r = 0; r < robots; r++) {
+            Supplier<Reading> reading = READINGS.get(r);
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < events; i++) {
+                    bus.sendEvent(reading.get());
+                }
+            });
+            thread.start();
+            sensors.add(thread);
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : sensors) {
+            thread.join();
+        }
+        for (Thread thread : fusions) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("shards %d, robots %d, cores %d%n", bus.getShardCount(), robots,
+                Runtime.getRuntime().availableProcessors());
+        for (int r = 0; r < robots; r++) {
+            int shard = bus.getShardOf(typeOf(r));
+            System.out.printf("robot %d -> shard %d (%d messages)%n", r, shard, bus.getShardTraffic(shard));
+        }
+        System.out.printf("%.0f events/s in total%n", robots * (double) events / seconds);
+    }
+
+    private static Class<? extends Reading> typeOf(int robot) {
+        return READINGS.get(robot).get().getClass();
+    }
+
+    private static class Reading implements Event<Boolean> {
+    }
+
+    // one reading type per robot, so that every robot has its own subscription
+    private static class Reading0 extends Reading {
+    }
+
+    private static class Reading1 extends Reading {
+    }
+
+    private static class Reading2 extends Reading {
+    }
+
+    private static class Reading3 extends Reading {
+    }
+
+    private static class Reading4 extends Reading {
+    }
+
+    private static class Reading5 extends Reading {
+    }
+
+    private static class Reading6 extends Reading {
+    }
+
+    private static class Reading7 extends Reading {
+    }
+
+    private static class Fusion extends MicroService {
+        private final Class<? extends Reading> type;
+        private final int expected;
+        private int received;
+
+        Fusion(int robot, int expected) {
+            super("Fusion" + robot);
+            this.type = typeOf(robot);
+            this.expected = expected;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(type, reading -> {
+                complete(reading, Boolean.TRUE);
+                if (++received == expected) {
+                    terminate();
+                }
+            });
+        }
+    }
+}
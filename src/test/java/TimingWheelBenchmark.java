@@ -0,0 +1,78 @@
+import bgu.spl.mics.TimingWheel;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Delayed-emission benchmark for large synthetic scenarios: millions of events are
+ * held for random ticks, from sensors with different frequencies, and the clock then
+ * ticks until all of them were released. Reports the time per scheduled event and
+ * per released event for {@link TimingWheel} and for a {@link PriorityQueue} ordered
+ * by due tick and sequence, as the message-bus used before.
+ * <p>
+ * Not a unit test - run it from the test classpath, e.g.
+ * {@code java -Xmx4g -cp target/classes:target/test-classes TimingWheelBenchmark [pending] [horizon]}
+ */
+public class TimingWheelBenchmark {
+
+    private static final int OWNERS = 1000;
+
+    public static void main(String[] args) {
+        int pending = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int horizon = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        System.out.printf("%-14s %10s %18s %18s%n", "queue", "pending", "schedule ns/event", "release ns/event");
+        for (int round = 0; round < 3; round++) { // the first rounds warm up
+            runWheel(pending, horizon, round == 2);
+            runHeap(pending, horizon, round == 2);
+        }
+    }
+
+    private static void runWheel(int pending, int horizon, boolean print) {
+        Random random = new Random(7);
+        Object[] owners = new Object[OWNERS];
+        for (int i = 0; i < OWNERS; i++) {
+            owners[i] = "Sensor" + i;
+        }
+        TimingWheel<Integer> wheel = new TimingWheel<>(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < pending; i++) {
+            wheel.schedule(1 + random.nextInt(horizon), owners[i % OWNERS], i);
+        }
+        long scheduled = System.nanoTime();
+        long released = 0;
+        for (int tick = 1; tick <= horizon; tick++) {
+            released += wheel.advance(tick).size();
+        }
+        long end = System.nanoTime();
+        report(print, "timing wheel", pending, scheduled - start, end - scheduled, released);
+    }
+
+    private static void runHeap(int pending, int horizon, boolean print) {
+        Random random = new Random(7);
+        PriorityQueue<long[]> heap = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        long start = System.nanoTime();
+        for (int i = 0; i < pending; i++) {
+            heap.add(new long[]{1 + random.nextInt(horizon), i});
+        }
+        long scheduled = System.nanoTime();
+        long released = 0;
+        for (int tick = 1; tick <= horizon; tick++) {
+            while (!heap.isEmpty() && heap.peek()[0] <= tick) {
+                heap.poll();
+                released++;
+            }
+        }
+        long end = System.nanoTime();
+        report(print, "priority queue", pending, scheduled - start, end - scheduled, released);
+    }
+
+    private static void report(boolean print, String name, int pending, long scheduleNanos, long releaseNanos, long released) {
+        if (released != pending) {
+            throw new IllegalStateException(name + " released " + released + " of " + pending + " events");
+        }
+        if (print) {
+            System.out.printf("%-14s %10d %18.1f %18.1f%n", name, pending,
+                    (double) scheduleNanos / pending, (double) releaseNanos / pending);
+        }
+    }
+}